@@ -1,36 +1,162 @@
 package controller;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import javax.management.relation.Role;
 
 import model.Account;
-import org.hibernate.Criteria;
+import model.Accountrole;
+import model.Role;
 import org.hibernate.Session;
 import common.BaseController;
+import common.BatchResult;
+import common.ControllerMetrics.Measurement;
+import common.ResultStream;
 
 public class AccountController extends BaseController{
 		
 	public AccountController(Session session) {
 		super(session);
 	}
+	
+	/**
+	 * Reads such as {@link #getAccounts()} and {@link #searchAccounts(Account)} are routed to the replica Session, 
+	 * unless a transaction of the primary Session is active.
+	 * @see BaseController#setReplicaSession(Session)
+	 */
+	public AccountController(Session session, Session replicaSession) {
+		super(session);
+		setReplicaSession(replicaSession);
+	}
+	
+	/** @see BaseController#BaseController(Session, boolean) */
+	public AccountController(Session session, boolean readOnly) {
+		super(session, readOnly);
+	}
 
 	public List<Account> getAccounts(){
-		return list("from Account");	// BaseController.list, same as getSession().createQuery("from Account").list();
+		final Measurement measurement = measure("getAccounts");		// see ControllerMetrics, nothing is recorded if it is not enabled
+		try {
+			return measurement.success(this.<Account>list("from Account"));	// BaseController.list, same as getSession().createQuery("from Account").list();
+		} finally {
+			measurement.stop();
+		}
+	}
+	
+	/** Same as {@link #getAccounts()} but accounts are streamed one by one, close the stream after use */
+	public ResultStream<Account> streamAccounts(){
+		return stream("from Account");
 	}
 	
+	/** Handle every account without loading all accounts into memory */
+	public int forEachAccount(ResultHandler<Account> handler){
+		return forEach("from Account", handler);
+	}
+	
+	/** Roles are reference data, the result is cached if the query cache is enabled */
 	public List<Role> getRoles(){
-		return list("from Role");
+		final Measurement measurement = measure("getRoles");
+		try {
+			return measurement.success(BaseController.<Role>list(getReadSession().createQuery("from Role").setCacheable(true)));
+		} finally {
+			measurement.stop();
+		}
+	}
+	
+	/** Same as {@link #getAccounts()} with initialized roles, accounts, account roles and roles are loaded by one query */
+	public List<Account> getAccountsWithRoles(){
+		final Measurement measurement = measure("getAccountsWithRoles");
+		try {
+			return measurement.success(this.<Account>list(fetchJoin(getReadSession().createCriteria(Account.class), "accountroles", "accountroles.role")));
+		} finally {
+			measurement.stop();
+		}
+	}
+	
+	/** Same as {@link #getAccount(String)} with initialized roles, see {@link Account#PROFILE_WITH_ROLES} */
+	public Account getAccountWithRoles(String username){
+		final Measurement measurement = measure("getAccountWithRoles");
+		try {
+			return measurement.success(get(Account.class, username, Account.PROFILE_WITH_ROLES));
+		} finally {
+			measurement.stop();
+		}
 	}
 	
 	public Account getAccount(String username){
-		return (Account) getSession().get(Account.class, username);
+		final Measurement measurement = measure("getAccount");
+		try {
+			return measurement.success((Account) getReadSession().get(Account.class, username));
+		} finally {
+			measurement.stop();
+		}
 	}
 	
+	/** Accounts in the order of the usernames, null if the account does not exist, see {@link BaseController#getAll(Class, Collection)} */
+	public List<Account> getAccounts(Collection<String> usernames){
+		final Measurement measurement = measure("getAccountsByUsernames");
+		try {
+			return measurement.success(getAll(Account.class, usernames));
+		} finally {
+			measurement.stop();
+		}
+	}
+	
+	/** Check the role by {@link RoleIndex}, no query is executed after the index was loaded */
+	public boolean hasRole(String username, String roleName){
+		return RoleIndex.of(getSession().getSessionFactory()).hasRole(username, roleName);
+	}
+	
+	/** The insert is executed at the flush, its statement is not counted by the metrics of this method, see {@link common.ControllerMetrics} */
 	public void insertAccount(Account account){
-		getSession().save(account);
+		final Measurement measurement = measure("insertAccount");
+		try {
+			checkWritable("insert");
+			getSession().save(account);
+			invalidateSearches(Account.class);
+			measurement.success();
+		} finally {
+			measurement.stop();
+		}
+	}
+	
+	/** Insert accounts by JDBC batches, the Session is flushed and cleared every batch, see {@link BaseController#insertAll(Iterable)} */
+	public BatchResult insertAccounts(Iterable<Account> accounts){
+		final Measurement measurement = measure("insertAccounts");
+		try {
+			return measurement.success(insertAll(accounts));
+		} finally {
+			measurement.stop();
+		}
+	}
+	
+	/**
+	 * Assign roles to an account by JDBC batches. 
+	 * Inserts of Accountrole are batched only if it uses pooled identifiers, see {@link common.HibernateUtil.SessionFactoryBuilder#setPooledIdentifierGenerator(Class, int)}
+	 */
+	public BatchResult assignRoles(Account account, Iterable<Role> roles){
+		List<Accountrole> accountroles = new ArrayList<Accountrole>();
+		for (Role role : roles)
+			accountroles.add(new Accountrole(role, account));
+		final Measurement measurement = measure("assignRoles");
+		try {
+			return measurement.success(insertAll(accountroles));
+		} finally {
+			measurement.stop();
+		}
 	}
 	
+	/** The update is executed at the flush, its statement is not counted by the metrics of this method, see {@link common.ControllerMetrics} */
 	public void saveAccount(Account account){
-		getSession().update(account);
+		final Measurement measurement = measure("saveAccount");
+		try {
+			checkWritable("update");
+			detachFromReplica(account);		// it may be read by getAccount outside of the transaction
+			getSession().update(account);
+			invalidateSearches(Account.class);	// the update is not flushed yet
+			measurement.success();
+		} finally {
+			measurement.stop();
+		}
 	}
 	
 	public List<Account> searchAccounts(Account accountCriteria){
@@ -59,11 +185,51 @@ public class AccountController extends BaseController{
 //		return list(query);
 		
 //		Criteria criteria = createSearchCriteria(SearchMode.BY_NON_NULL_FIELDS, Account.class, accountCriteria);
-		Criteria criteria = createSearcher(SearchMode.BY_NON_NULL_FIELDS)
-								.exclude("password")	// do not search for password property
-								.createCriteria(Account.class, accountCriteria);
-		// you can do additional filtering
-		return list(criteria);
+//		Criteria criteria = createSearcher(SearchMode.BY_NON_NULL_FIELDS)
+//								.exclude("password")	// do not search for password property
+//								.createCriteria(Account.class, accountCriteria);
+//		// you can do additional filtering
+//		return list(criteria);
+		// same as above, repeated searches are served from SearchResultCache if it is enabled
+		final Measurement measurement = measure("searchAccounts");
+		try {
+			return measurement.success(createSearcher(SearchMode.BY_NON_NULL_FIELDS)
+					.exclude("password")	// do not search for password property
+					.search(Account.class, accountCriteria));
+		} finally {
+			measurement.stop();
+		}
+	}
+
+	/** Accounts whose username starts with the prefix, by username LIKE 'prefix%' which can use the primary key index */
+	public List<Account> searchAccountsByUsernamePrefix(String usernamePrefix){
+		final Measurement measurement = measure("searchAccountsByUsernamePrefix");
+		try {
+			return measurement.success(createSearcher(SearchMode.BY_NON_NULL_FIELDS)
+					.startsWith("username", usernamePrefix)
+					.search(Account.class, null));
+		} finally {
+			measurement.stop();
+		}
+	}
+
+	/** Usernames which start with the prefix, only the username column is read and no Account is loaded */
+	public List<String> getUsernames(String usernamePrefix){
+		final Measurement measurement = measure("getUsernames");
+		try {
+			return measurement.success(createSearcher(SearchMode.BY_NON_NULL_FIELDS)
+					.startsWith("username", usernamePrefix)
+					.projectValues(String.class, Account.class, null, "username"));
+		} finally {
+			measurement.stop();
+		}
+	}
+
+	/** Page through the search result of {@link #searchAccounts(Account)} ordered by username */
+	public PageCursor<Account> pageAccounts(Account accountCriteria, int pageSize){
+		return createSearcher(SearchMode.BY_NON_NULL_FIELDS)
+				.exclude("password")	// do not search for password property
+				.createPageCursor(Account.class, accountCriteria, pageSize);
 	}
 
 	/** test only */
@@ -1,11 +1,34 @@
 package controller;
 
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import common.AsyncController;
+import common.AsyncController.ControllerFactory;
 
 public class MySystemControllerWrapper {
 	
 	public static AccountController getDefaultAccountController(Session session){
 		return new AccountController(session);
 	}
+	
+	public static UserController getDefaultUserController(Session session){
+		return new UserController(session);
+	}
+	
+	/** AccountController for reading and exporting only, entities are not dirty checked */
+	public static AccountController getReadOnlyAccountController(Session session){
+		return new AccountController(session, true);
+	}
+	
+	/** AccountController whose calls run concurrently with their own Session, see {@link AsyncController} */
+	public static AsyncController<AccountController> getAsyncAccountController(SessionFactory sessionFactory){
+		return new AsyncController<AccountController>(sessionFactory, new ControllerFactory<AccountController>() {
+			@Override
+			public AccountController create(Session session) {
+				return getDefaultAccountController(session);
+			}
+		});
+	}
 
 }
@@ -0,0 +1,417 @@
+package controller;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import model.Account;
+import model.Accountrole;
+import model.Role;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+import common.HibernateUtil;
+
+/**
+ * @definition
+ * In-memory index of account roles for authorization checks, no query is executed and no object is allocated by {@link #hasRole(String, int)}. <br/>
+ * Each role has a dense bit position, and each account has a long[] mask of its roles,
+ * the same idea as the int flags of FlagHelper but the number of roles is not limited to 32. <br/>
+ * The index is loaded by two scalar queries when it is first used, then it is updated when Accountrole rows are inserted, updated or deleted and committed.
+ * Committed changes are applied from the event state without a query, because the callbacks run inside the commit and a query would need another connection.
+ * An update whose old state is unknown, such as of a detached Accountrole, reloads the index by a background thread. <br/>
+ * Changes which are not done by the Session of the SessionFactory, such as bulk updates or other applications, are not detected, call {@link #reload()}.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * RoleIndex index = RoleIndex.of(sessionFactory);
+ * final int admin = index.bitOf("admin");			// resolve the bit once
+ * if (index.hasRole(username, admin))
+ * 	doAdminThings();
+ * }
+ * </PRE>
+ */
+public class RoleIndex {
+
+	/** Map{@literal<SessionFactory, RoleIndex>} */
+	private static final ConcurrentMap<SessionFactory, RoleIndex> indexes = new ConcurrentHashMap<SessionFactory, RoleIndex>();
+	private static final long[] EMPTY_MASK = new long[0];
+	/** Background reloads, daemon threads do not block the process from exiting */
+	private static final ExecutorService reloader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "role-index-reloader");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** 
+	 * Get the index of the SessionFactory, it is loaded and starts listening to Accountrole changes at the first call. 
+	 * It is released by {@link HibernateUtil#closeSessionFactory(String)}.
+	 */
+	public static RoleIndex of(final SessionFactory sessionFactory){
+		RoleIndex index = indexes.get(sessionFactory);
+		if (index != null) return index;
+
+		synchronized (indexes) {
+			index = indexes.get(sessionFactory);
+			if (index == null) {
+				index = new RoleIndex(sessionFactory);
+				index.listen();
+				index.reload();
+				indexes.put(sessionFactory, index);
+				HibernateUtil.onClose(sessionFactory, new Runnable() {
+					@Override
+					public void run() {
+						release(sessionFactory);
+					}
+				});
+			}
+			return index;
+		}
+	}
+
+	/** Drop the index of the SessionFactory, call it when the SessionFactory is closed. */
+	public static void release(SessionFactory sessionFactory){
+		indexes.remove(sessionFactory);
+	}
+
+
+
+	private final SessionFactory sessionFactory;
+	/** Map{@literal<Role name, Bit position>}, positions are never reused */
+	private final ConcurrentMap<String, Integer> bits = new ConcurrentHashMap<String, Integer>();
+	private final AtomicInteger nextBit = new AtomicInteger();
+	/**
+	 * Map{@literal<Username, Role mask>}, masks are copied on write and never modified after they are put. <br/>
+	 * Writes are synchronized on the index, the map is replaced by {@link #reload()}.
+	 */
+	private volatile ConcurrentMap<String, long[]> masks = new ConcurrentHashMap<String, long[]>();
+	/** 
+	 * Map{@literal<Username, Number of Accountrole rows per bit>}, an account may have several rows of the same role, 
+	 * so a bit is cleared when its last row is deleted. Guarded by the index, the map is replaced by {@link #reload()}.
+	 */
+	private Map<String, int[]> counts = new HashMap<String, int[]>();
+	/** Whether a background reload is submitted and not started yet, see {@link #reloadInBackground()} */
+	private final AtomicBoolean reloadPending = new AtomicBoolean();
+	/** Usernames whose roles were changed while {@link #reload()} reads the tables, null if it is not reloading. Guarded by the index. */
+	private Set<String> changedWhileReloading;
+	/** Full reloads are serialized by this lock */
+	private final Object reloadLock = new Object();
+
+	private RoleIndex(SessionFactory sessionFactory){
+		this.sessionFactory = sessionFactory;
+	}
+
+	/**
+	 * Bit position of the role, resolve it once and check by {@link #hasRole(String, int)} on hot paths.
+	 * @return -1 if no account has the role and the role did not exist when the index was loaded
+	 */
+	public int bitOf(String roleName){
+		final Integer bit = bits.get(roleName);
+		return bit == null ? -1 : bit.intValue();
+	}
+
+	/** Mask of several roles for {@link #hasAnyRole(String, long[])} and {@link #hasAllRoles(String, long[])}, unknown roles are ignored */
+	public long[] maskOf(String... roleNames){
+		long[] mask = EMPTY_MASK;
+		for (String roleName : roleNames) {
+			final int bit = bitOf(roleName);
+			if (bit >= 0) mask = with(mask, bit);
+		}
+		return mask;
+	}
+
+	public boolean hasRole(String username, String roleName){
+		return hasRole(username, bitOf(roleName));
+	}
+	/** @param bit position which was resolved by {@link #bitOf(String)} */
+	public boolean hasRole(String username, int bit){
+		if (bit < 0) return false;
+		final long[] mask = masks.get(username);
+		return mask != null && (bit >>> 6) < mask.length && (mask[bit >>> 6] & (1L << bit)) != 0;
+	}
+	/** Whether the account has at least one role of the mask, see {@link #maskOf(String...)} */
+	public boolean hasAnyRole(String username, long[] roles){
+		final long[] mask = masks.get(username);
+		if (mask == null) return false;
+		for (int i = 0, length = Math.min(mask.length, roles.length); i < length; i++) {
+			if ((mask[i] & roles[i]) != 0) return true;
+		}
+		return false;
+	}
+	/** Whether the account has every role of the mask, see {@link #maskOf(String...)} */
+	public boolean hasAllRoles(String username, long[] roles){
+		final long[] mask = masks.get(username);
+		for (int i = 0; i < roles.length; i++) {
+			final long word = mask != null && i < mask.length ? mask[i] : 0L;
+			if ((word & roles[i]) != roles[i]) return false;
+		}
+		return true;
+	}
+
+	/** Number of accounts which have at least one role */
+	public int size(){
+		return masks.size();
+	}
+
+	/**
+	 * Load all roles and account roles again, it replaces the index. Bit positions of existing roles are not changed. <br/>
+	 * Accounts whose roles are committed while the tables are read may be missed by the scroll,
+	 * they are recorded and reloaded after the loaded masks replace the index.
+	 */
+	public void reload(){
+		synchronized (reloadLock) {
+			synchronized (this) {
+				changedWhileReloading = new HashSet<String>();
+			}
+			final Map<String, int[]> loaded = load();
+			final ConcurrentMap<String, long[]> loadedMasks = new ConcurrentHashMap<String, long[]>();
+			for (Map.Entry<String, int[]> entry : loaded.entrySet())
+				loadedMasks.put(entry.getKey(), maskOf(entry.getValue()));
+			final Set<String> changed;
+			synchronized (this) {
+				masks = loadedMasks;
+				counts = loaded;
+				changed = changedWhileReloading;
+				changedWhileReloading = null;
+			}
+			for (String username : changed)
+				reload(username);
+		}
+	}
+
+	/** Reload by a background thread, such as after a change which cannot be applied from the event. Pending reloads are done once. */
+	public void reloadInBackground(){
+		if (!reloadPending.compareAndSet(false, true)) return;
+		reloader.execute(new Runnable() {
+			@Override
+			public void run() {
+				reloadPending.set(false);
+				if (indexes.get(sessionFactory) != RoleIndex.this) return;		// released
+				try {
+					reload();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/** Read the row counts of all accounts */
+	private Map<String, int[]> load(){
+		final Map<String, int[]> loaded = new HashMap<String, int[]>();
+		final StatelessSession session = sessionFactory.openStatelessSession();
+		try {
+			// dense bits for every role, even if no account has it yet
+			ScrollableResults results = session.createQuery("select r.roleName from Role r order by r.roleName")
+					.scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				while (results.next())
+					assignBit(results.getString(0));
+			} finally {
+				results.close();
+			}
+
+			results = session.createQuery("select ar.account.username, ar.role.roleName from Accountrole ar")
+					.setFetchSize(1000).scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				while (results.next()) {
+					final String username = results.getString(0);
+					loaded.put(username, increment(loaded.get(username), assignBit(results.getString(1)), 1));
+				}
+			} finally {
+				results.close();
+			}
+		} finally {
+			session.close();
+		}
+		return loaded;
+	}
+
+	/** Reload the roles of one account, it executes a query so do not call it inside a commit */
+	public void reload(String username){
+		int[] count = null;
+		final StatelessSession session = sessionFactory.openStatelessSession();
+		try {
+			final ScrollableResults results = session.createQuery("select ar.role.roleName from Accountrole ar where ar.account.username = :username")
+					.setString("username", username).scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				while (results.next())
+					count = increment(count, assignBit(results.getString(0)), 1);
+			} finally {
+				results.close();
+			}
+		} finally {
+			session.close();
+		}
+
+		synchronized (this) {
+			changed(username);
+			put(username, count);
+		}
+	}
+
+	private int assignBit(String roleName){
+		Integer bit = bits.get(roleName);
+		if (bit == null) {
+			final Integer assigned = nextBit.getAndIncrement();
+			bit = bits.putIfAbsent(roleName, assigned);
+			if (bit == null) bit = assigned;
+		}
+		return bit.intValue();
+	}
+
+	/** Count a row of the account's role and set its bit */
+	private void grant(String username, String roleName){
+		final int bit = assignBit(roleName);
+		synchronized (this) {
+			changed(username);
+			put(username, increment(counts.get(username), bit, 1));
+		}
+	}
+	/** Uncount a row of the account's role, its bit is cleared if it was the last row */
+	private void revoke(String username, String roleName){
+		final int bit = bitOf(roleName);
+		if (bit < 0) return;
+		synchronized (this) {
+			changed(username);
+			put(username, increment(counts.get(username), bit, -1));
+		}
+	}
+	/** Remove the account, such as after it was deleted */
+	private synchronized void remove(String username){
+		changed(username);
+		put(username, null);
+	}
+	/** Replace the counts and the mask of the account, it is called with the lock of the index. The mask is a new array so that readers always see a complete mask. */
+	private void put(String username, int[] count){
+		final long[] mask = count == null ? EMPTY_MASK : maskOf(count);
+		if (mask.length == 0) {
+			counts.remove(username);
+			masks.remove(username);
+		} else {
+			counts.put(username, count);
+			masks.put(username, mask);
+		}
+	}
+
+	/** Record the change if the index is being reloaded, it is called with the lock of the index */
+	private void changed(String username){
+		if (changedWhileReloading != null) changedWhileReloading.add(username);
+	}
+
+	/** Add the delta to the count of the bit, the array is grown if it is null or too short. Counts are not negative. */
+	private static int[] increment(int[] count, int bit, int delta){
+		if (count == null) count = new int[bit + 1];
+		else if (count.length <= bit) count = Arrays.copyOf(count, bit + 1);
+		count[bit] = Math.max(0, count[bit] + delta);
+		return count;
+	}
+	/** Mask of the bits whose count is positive */
+	private static long[] maskOf(int[] count){
+		long[] mask = EMPTY_MASK;
+		for (int bit = 0; bit < count.length; bit++) {
+			if (count[bit] > 0) mask = with(mask, bit);
+		}
+		return mask;
+	}
+	/** Copy of the mask with the bit set, the same mask is returned if the bit was set */
+	private static long[] with(long[] mask, int bit){
+		final int word = bit >>> 6;
+		if (word < mask.length && (mask[word] & (1L << bit)) != 0) return mask;
+		final long[] copy = new long[Math.max(mask.length, word + 1)];
+		System.arraycopy(mask, 0, copy, 0, mask.length);
+		copy[word] |= 1L << bit;
+		return copy;
+	}
+	private void listen(){
+		final EventListenerRegistry registry = ((SessionFactoryImplementor) sessionFactory).getServiceRegistry().getService(EventListenerRegistry.class);
+		final AccountroleListener listener = new AccountroleListener();
+		registry.appendListeners(EventType.POST_COMMIT_INSERT, listener);
+		registry.appendListeners(EventType.POST_COMMIT_UPDATE, listener);
+		registry.appendListeners(EventType.POST_COMMIT_DELETE, listener);
+	}
+
+
+
+//	INNER CLASS		\\
+	/** 
+	 * Update the index after Accountrole and Account changes were committed, from the entities and their old states without a query. 
+	 * The usernames and role names are read from the proxies without initialization.
+	 */
+	private class AccountroleListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void onPostInsert(PostInsertEvent event) {
+			if (event.getEntity() instanceof Accountrole) {
+				final Accountrole accountrole = (Accountrole) event.getEntity();
+				grant(accountrole.getAccount().getUsername(), accountrole.getRole().getRoleName());
+			}
+		}
+		@Override
+		public void onPostUpdate(PostUpdateEvent event) {
+			if (event.getEntity() instanceof Accountrole) {
+				final Accountrole accountrole = (Accountrole) event.getEntity();
+				final Object[] oldState = event.getOldState();
+				if (oldState == null) {
+					reloadInBackground();			// the old account and role are not known, such as an update of a detached Accountrole
+					return;
+				}
+				final Account oldAccount = (Account) valueOf(event.getPersister(), oldState, "account");
+				final Role oldRole = (Role) valueOf(event.getPersister(), oldState, "role");
+				if (oldAccount == null || oldRole == null) {
+					reloadInBackground();
+					return;
+				}
+				final String username = accountrole.getAccount().getUsername();
+				final String roleName = accountrole.getRole().getRoleName();
+				if (username.equals(oldAccount.getUsername()) && roleName.equals(oldRole.getRoleName())) return;
+				revoke(oldAccount.getUsername(), oldRole.getRoleName());
+				grant(username, roleName);
+			}
+		}
+		@Override
+		public void onPostDelete(PostDeleteEvent event) {
+			if (event.getEntity() instanceof Accountrole) {
+				final Accountrole accountrole = (Accountrole) event.getEntity();
+				revoke(accountrole.getAccount().getUsername(), accountrole.getRole().getRoleName());
+			} else if (event.getEntity() instanceof Account) {
+				remove(((Account) event.getEntity()).getUsername());
+			}
+		}
+
+		/** Value of the property in the state, null if the persister has no such property */
+		private Object valueOf(EntityPersister persister, Object[] state, String propertyName){
+			final String[] names = persister.getPropertyNames();
+			for (int i = 0; i < names.length; i++) {
+				if (propertyName.equals(names[i])) return state[i];
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package controller;
+import java.util.Collection;
+import java.util.List;
+
+import model.User;
+import model.UserBalance;
+import model.UserId;
+import org.hibernate.Session;
+import common.BaseController;
+import common.BatchResult;
+import common.ControllerMetrics.Measurement;
+
+public class UserController extends BaseController{
+	
+	public UserController(Session session) {
+		super(session);
+	}
+	
+	/** @see BaseController#BaseController(Session, boolean) */
+	public UserController(Session session, boolean readOnly) {
+		super(session, readOnly);
+	}
+	
+	public User getUser(UserId id){
+		final Measurement measurement = measure("getUser");
+		try {
+			return measurement.success((User) getReadSession().get(User.class, id));
+		} finally {
+			measurement.stop();
+		}
+	}
+	
+	/** Users in the order of the identifiers, null if the user does not exist, see {@link BaseController#getAll(Class, Collection)} */
+	public List<User> getUsers(Collection<UserId> ids){
+		final Measurement measurement = measure("getUsers");
+		try {
+			return measurement.success(getAll(User.class, ids));
+		} finally {
+			measurement.stop();
+		}
+	}
+	
+	/** (site, name, money) of the users of a site, only the three columns are read and no User is loaded */
+	public List<UserBalance> getBalances(String site){
+		final Measurement measurement = measure("getBalances");
+		try {
+			return measurement.success(createSearcher(SearchMode.BY_NON_NULL_FIELDS)
+					.project(UserBalance.class, User.class, new User(new UserId(site, null, null)), "id.site", "id.name", "money"));
+		} finally {
+			measurement.stop();
+		}
+	}
+	
+	/** Page through the users which match the criteria in the primary key order (site, location, name), see {@link BaseController.PageCursor} */
+	public PageCursor<User> pageUsers(User userCriteria, int pageSize){
+		return createSearcher(SearchMode.BY_NON_NULL_FIELDS).createPageCursor(User.class, userCriteria, pageSize);
+	}
+	
+	/**
+	 * Write the balances of the users by multi-row upsert, new users are inserted and existing ones are updated without loading them, 
+	 * see {@link BaseController#upsertAll(Class, Iterable)}
+	 */
+	public BatchResult upsertUsers(Iterable<User> users){
+		final Measurement measurement = measure("upsertUsers");
+		try {
+			return measurement.success(upsertAll(User.class, users));
+		} finally {
+			measurement.stop();
+		}
+	}
+}
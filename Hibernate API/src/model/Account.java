@@ -11,13 +11,24 @@ import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.FetchProfile;
+import org.hibernate.annotations.FetchProfile.FetchOverride;
+
 /**
  * Account generated by hbm2java
  */
 @Entity
 @Table(name = "account", catalog = "database1")
+@FetchProfile(name = Account.PROFILE_WITH_ROLES, fetchOverrides = {
+		@FetchOverride(entity = Account.class, association = "accountroles", mode = FetchMode.JOIN),
+		@FetchOverride(entity = Accountrole.class, association = "role", mode = FetchMode.JOIN) })
 public class Account implements java.io.Serializable {
 
+	/** Fetch profile which loads the account with its roles by one query */
+	public static final String PROFILE_WITH_ROLES = "account-with-roles";
+
 	private String username;
 	private String password;
 	private Set<Accountrole> accountroles = new HashSet<Accountrole>(0);
@@ -57,6 +68,7 @@ public class Account implements java.io.Serializable {
 	}
 
 	@OneToMany(fetch = FetchType.LAZY, mappedBy = "account")
+	@BatchSize(size = 50)
 	public Set<Accountrole> getAccountroles() {
 		return this.accountroles;
 	}
@@ -11,11 +11,14 @@ import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.BatchSize;
+
 /**
  * Role generated by hbm2java
  */
 @Entity
 @Table(name = "role", catalog = "database1")
+@BatchSize(size = 50)
 public class Role implements java.io.Serializable {
 
 	private String roleName;
@@ -0,0 +1,37 @@
+package model;
+
+/**
+ * Projection of {@link User} for balance listings, it is not an entity and it is not tracked by the Session.
+ * @see controller.UserController#getBalances(String)
+ */
+public class UserBalance implements java.io.Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final String site;
+	private final String name;
+	private final Long money;
+
+	public UserBalance(String site, String name, Long money) {
+		this.site = site;
+		this.name = name;
+		this.money = money;
+	}
+
+	public String getSite() {
+		return this.site;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public Long getMoney() {
+		return this.money;
+	}
+
+	@Override
+	public String toString() {
+		return site + "/" + name + ":" + money;
+	}
+
+}
@@ -0,0 +1,117 @@
+package common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import model.Account;
+
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import controller.AccountController;
+import controller.MySystemControllerWrapper;
+import controller.TestDatabase;
+import common.AsyncController.Call;
+
+/**
+ * @definition
+ * Back-pressure of {@link AsyncController#submit(Call)}, a submitter waits for a permit when the pool size of calls are unfinished.
+ */
+public class AsyncControllerTest {
+
+	private static final String NAME = "test-async";
+	private static final int POOL_SIZE = 2;
+
+	private final ExecutorService submitter = Executors.newSingleThreadExecutor();
+
+	@After
+	public void close(){
+		submitter.shutdownNow();
+		TestDatabase.close(NAME);
+	}
+
+	@Test
+	public void submitWaitsForPermit() throws Exception{
+		final SessionFactory sessionFactory = open(4);
+		final AsyncController<AccountController> async = MySystemControllerWrapper.getAsyncAccountController(sessionFactory);
+
+		final CountDownLatch started = new CountDownLatch(POOL_SIZE);
+		final CountDownLatch finish = new CountDownLatch(1);
+		for (int i = 0; i < POOL_SIZE; i++) {
+			async.submit(new Call<AccountController, Void>() {
+				@Override
+				public Void call(AccountController controller) throws Exception {
+					controller.getAccounts();
+					started.countDown();
+					finish.await();
+					return null;
+				}
+			});
+		}
+		assertEquals(0, async.getAvailablePermits());
+		started.await(5, TimeUnit.SECONDS);
+
+		final Future<Future<List<Account>>> blocked = submitter.submit(new Callable<Future<List<Account>>>() {
+			@Override
+			public Future<List<Account>> call() throws Exception {
+				return async.submit(new Call<AccountController, List<Account>>() {
+					@Override
+					public List<Account> call(AccountController controller) throws Exception {
+						return controller.getAccounts();
+					}
+				});
+			}
+		});
+		try {
+			blocked.get(300, TimeUnit.MILLISECONDS);
+			fail("submit must wait while every permit is taken");
+		} catch (TimeoutException e) {
+			// expected
+		}
+		assertFalse(blocked.isDone());
+
+		finish.countDown();
+		assertEquals(4, blocked.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS).size());
+	}
+
+	@Test
+	public void permitsAreReleasedAfterFailures() throws Exception{
+		final SessionFactory sessionFactory = open(1);
+		final AsyncController<AccountController> async = MySystemControllerWrapper.getAsyncAccountController(sessionFactory);
+
+		for (int i = 0; i < POOL_SIZE * 2; i++) {
+			final Future<Void> failed = async.submit(new Call<AccountController, Void>() {
+				@Override
+				public Void call(AccountController controller) throws Exception {
+					throw new IllegalStateException("failed call");
+				}
+			});
+			try {
+				failed.get(5, TimeUnit.SECONDS);
+				fail("the call must fail");
+			} catch (ExecutionException e) {
+				assertEquals(IllegalStateException.class, e.getCause().getClass());
+			}
+		}
+		assertEquals(POOL_SIZE, async.getAvailablePermits());
+	}
+
+	/** The permits are the pool size, see {@link AsyncController#getPoolSize(SessionFactory)} */
+	private static SessionFactory open(int accounts){
+		final SessionFactory sessionFactory = TestDatabase.createBuilder(NAME).setConnectionPool(POOL_SIZE, POOL_SIZE).build();
+		TestDatabase.seed(sessionFactory, accounts, 0);
+		return sessionFactory;
+	}
+}
@@ -0,0 +1,97 @@
+package common;
+
+import static org.junit.Assert.assertEquals;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import common.ControllerMetrics.Measurement;
+import common.ControllerMetrics.MethodSnapshot;
+import controller.AccountController;
+import controller.TestDatabase;
+
+/**
+ * @definition
+ * Work of a measured call is counted per SessionFactory, and {@link ControllerMetrics#reset()} does not lose the calls which are in flight.
+ */
+public class ControllerMetricsTest {
+
+	private static final String NAME = "test-metrics";
+	private static final String OTHER_NAME = "test-metrics-other";
+
+	@After
+	public void close(){
+		TestDatabase.close(NAME);
+		TestDatabase.close(OTHER_NAME);
+	}
+
+	@Test
+	public void otherFactoryIsNotCounted(){
+		final SessionFactory sessionFactory = open(NAME);
+		final SessionFactory other = open(OTHER_NAME);
+		final ControllerMetrics metrics = ControllerMetrics.of(sessionFactory);
+
+		final Measurement measurement = metrics.start(AccountController.class, "getAccounts");
+		try {
+			readAccounts(sessionFactory);
+			readAccounts(other);		// same thread, another SessionFactory
+			readAccounts(other);
+			measurement.success();
+		} finally {
+			measurement.stop();
+		}
+
+		final MethodSnapshot snapshot = metrics.getMethods().get(0);
+		assertEquals(1, snapshot.getCount());
+		assertEquals(1, snapshot.getStatements());
+		assertEquals(0, ControllerMetrics.of(other).getMethods().size());
+	}
+
+	@Test
+	public void resetKeepsCallInFlight(){
+		final SessionFactory sessionFactory = open(NAME);
+		final ControllerMetrics metrics = ControllerMetrics.of(sessionFactory);
+		record(metrics, sessionFactory);
+
+		final Measurement measurement = metrics.start(AccountController.class, "getAccounts");
+		try {
+			metrics.reset();
+			assertEquals(0, metrics.getMethods().get(0).getCount());
+			readAccounts(sessionFactory);
+			measurement.success();
+		} finally {
+			measurement.stop();
+		}
+
+		final MethodSnapshot snapshot = metrics.getMethods().get(0);
+		assertEquals(1, snapshot.getCount());
+		assertEquals(1, snapshot.getStatements());
+	}
+
+	private static SessionFactory open(String name){
+		final SessionFactory sessionFactory = TestDatabase.createBuilder(name).enableControllerMetrics(0).build();
+		TestDatabase.seed(sessionFactory, 2, 0);
+		return sessionFactory;
+	}
+
+	private static void record(ControllerMetrics metrics, SessionFactory sessionFactory){
+		final Measurement measurement = metrics.start(AccountController.class, "getAccounts");
+		try {
+			readAccounts(sessionFactory);
+			measurement.success();
+		} finally {
+			measurement.stop();
+		}
+	}
+
+	private static void readAccounts(SessionFactory sessionFactory){
+		final Session session = sessionFactory.openSession();
+		try {
+			session.createQuery("from Account").list();
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import model.Account;
+import model.User;
+import model.UserId;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import controller.AccountController;
+import controller.TestDatabase;
+
+/**
+ * @definition
+ * Results and number of statements of {@link BaseController#getAll(Class, java.util.Collection, int)},
+ * entities are returned in the order of the identifiers and every missing entity is loaded by chunks of 'id in (...)' queries.
+ */
+public class GetAllTest {
+
+	private static final String NAME = "test-get-all";
+	private static final int ACCOUNTS = 10;
+	private static final int USERS = 10;
+
+	private static SessionFactory sessionFactory;
+	private static Statistics statistics;
+
+	private Session session;
+	private AccountController controller;
+
+	@BeforeClass
+	public static void open(){
+		sessionFactory = TestDatabase.open(NAME, ACCOUNTS, USERS);
+		statistics = sessionFactory.getStatistics();
+		statistics.setStatisticsEnabled(true);
+	}
+
+	@AfterClass
+	public static void close(){
+		TestDatabase.close(NAME);
+	}
+
+	@Before
+	public void openSession(){
+		session = sessionFactory.openSession();
+		controller = new AccountController(session);
+		statistics.clear();
+	}
+
+	@After
+	public void closeSession(){
+		session.close();
+	}
+
+	@Test
+	public void emptyIds(){
+		assertEquals(0, controller.getAll(Account.class, Collections.<String>emptyList(), 4).size());
+		assertEquals(0, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void resultsInIdentifierOrder(){
+		final List<String> usernames = new ArrayList<String>();
+		for (int i = ACCOUNTS - 1; i >= 0; i--)
+			usernames.add(TestDatabase.username(i));
+
+		final List<Account> accounts = controller.getAll(Account.class, usernames, ACCOUNTS);
+		assertEquals(usernames, usernamesOf(accounts));
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void duplicateAndNullIds(){
+		final List<Account> accounts = controller.getAll(Account.class,
+				Arrays.asList(TestDatabase.username(1), TestDatabase.username(2), TestDatabase.username(1), null), 4);
+		assertEquals(4, accounts.size());
+		assertEquals(TestDatabase.username(1), accounts.get(0).getUsername());
+		assertEquals(TestDatabase.username(2), accounts.get(1).getUsername());
+		assertSame(accounts.get(0), accounts.get(2));
+		assertNull(accounts.get(3));
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void missingIds(){
+		final List<Account> accounts = controller.getAll(Account.class,
+				Arrays.asList(TestDatabase.username(3), "missing", TestDatabase.username(4)), 4);
+		assertEquals(TestDatabase.username(3), accounts.get(0).getUsername());
+		assertNull(accounts.get(1));
+		assertEquals(TestDatabase.username(4), accounts.get(2).getUsername());
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void moreIdsThanChunkSize(){
+		final List<String> usernames = new ArrayList<String>();
+		for (int i = 0; i < ACCOUNTS; i++)
+			usernames.add(TestDatabase.username(i));
+
+		final List<Account> accounts = controller.getAll(Account.class, usernames, 4);
+		assertEquals(usernames, usernamesOf(accounts));
+		assertEquals(3, statistics.getPrepareStatementCount());		// 4 + 4 + 2
+	}
+
+	@Test
+	public void sessionEntitiesAreNotQueried(){
+		final Account loaded = (Account) session.get(Account.class, TestDatabase.username(5));
+		statistics.clear();
+
+		final List<Account> accounts = controller.getAll(Account.class, Arrays.asList(TestDatabase.username(5)), 4);
+		assertSame(loaded, accounts.get(0));
+		assertEquals(0, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void compositeIds(){
+		final List<UserId> ids = Arrays.asList(TestDatabase.userId(7), TestDatabase.userId(2), new UserId("site0", "location0", "missing"),
+				TestDatabase.userId(7), TestDatabase.userId(9), TestDatabase.userId(0));
+
+		final List<User> users = controller.getAll(User.class, ids, 2);
+		assertEquals(ids.size(), users.size());
+		for (int i = 0; i < ids.size(); i++) {
+			if (i == 2) assertNull(users.get(i));
+			else assertEquals(ids.get(i), users.get(i).getId());
+		}
+		assertSame(users.get(0), users.get(3));
+		assertEquals(3, statistics.getPrepareStatementCount());		// 5 missing identifiers by 2 + 2 + 1
+	}
+
+	private static List<String> usernamesOf(List<Account> accounts){
+		final List<String> usernames = new ArrayList<String>();
+		for (Account account : accounts)
+			usernames.add(account.getUsername());
+		return usernames;
+	}
+}
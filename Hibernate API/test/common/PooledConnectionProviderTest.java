@@ -0,0 +1,65 @@
+package common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import controller.TestDatabase;
+
+/**
+ * @definition
+ * Connections of {@link PooledConnectionProvider} after {@link HibernateUtil#closeSessionFactory(String)},
+ * the pool is stopped with the SessionFactory and no connection is left open.
+ */
+public class PooledConnectionProviderTest {
+
+	private static final String NAME = "test-pool";
+
+	@After
+	public void close(){
+		TestDatabase.close(NAME);
+	}
+
+	@Test
+	public void closedFactoryLeavesNoOpenConnection(){
+		final SessionFactory sessionFactory = TestDatabase.createBuilder(NAME).setConnectionPool(2, 4).build();
+		final PooledConnectionProvider pool = PooledConnectionProvider.of(sessionFactory);
+		assertNotNull(pool);
+		readAccounts(sessionFactory);
+		assertEquals(2, pool.getMetrics().getOpen());
+
+		HibernateUtil.closeSessionFactory(NAME);
+		assertEquals(0, pool.getMetrics().getOpen());
+	}
+
+	@Test
+	public void checkedOutConnectionIsClosedWhenReturned() throws SQLException{
+		final SessionFactory sessionFactory = TestDatabase.createBuilder(NAME).setConnectionPool(1, 4).build();
+		final PooledConnectionProvider pool = PooledConnectionProvider.of(sessionFactory);
+		final Connection connection = pool.getConnection();
+		connection.setAutoCommit(false);
+
+		HibernateUtil.closeSessionFactory(NAME);
+		assertEquals(1, pool.getMetrics().getOpen());
+		pool.closeConnection(connection);
+		assertTrue(connection.isClosed());
+		assertEquals(0, pool.getMetrics().getOpen());
+	}
+
+	private static void readAccounts(SessionFactory sessionFactory){
+		final Session session = sessionFactory.openSession();
+		try {
+			session.createQuery("from Account").list();
+		} finally {
+			session.close();
+		}
+	}
+}
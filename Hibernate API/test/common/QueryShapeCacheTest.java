@@ -0,0 +1,74 @@
+package common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import model.Account;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import common.BaseController.SearchMode;
+import controller.AccountController;
+import controller.TestDatabase;
+
+/**
+ * @definition
+ * IN-lists of {@link QueryShapeCache} are padded to the next power of 2, so lists of 5 to 8 values share one shape and return the same rows.
+ */
+public class QueryShapeCacheTest {
+
+	private static final String NAME = "test-shapes";
+	private static final int ACCOUNTS = 16;
+
+	@After
+	public void close(){
+		TestDatabase.close(NAME);
+	}
+
+	@Test
+	public void paddedSize(){
+		final int[] expected = {0, 1, 2, 4, 4, 8, 8, 8, 8, 16, 16};
+		for (int size = 0; size < expected.length; size++)
+			assertEquals("size " + size, expected[size], QueryShapeCache.paddedSize(size));
+		assertEquals(1024, QueryShapeCache.paddedSize(1000));
+		assertEquals(1024, QueryShapeCache.paddedSize(1024));
+		assertEquals(2048, QueryShapeCache.paddedSize(1025));
+	}
+
+	@Test
+	public void paddedListsShareShape(){
+		final SessionFactory sessionFactory = TestDatabase.createBuilder(NAME).build();
+		TestDatabase.seed(sessionFactory, ACCOUNTS, 0);
+		final QueryShapeCache cache = QueryShapeCache.of(sessionFactory);
+		cache.clear();
+
+		final Session session = sessionFactory.openSession();
+		try {
+			final AccountController controller = new AccountController(session);
+			for (int size = 5; size <= 8; size++)
+				assertEquals(size, search(controller, size).size());
+
+			assertEquals(1, cache.size());
+			final QueryShapeCache.ShapeStatistics shape = cache.getStatistics().get(0);
+			assertEquals(4, shape.getExecutions());
+			assertEquals(3, shape.getReuses());
+
+			assertEquals(9, search(controller, 9).size());		// the next power of 2 is another shape
+			assertEquals(2, cache.size());
+		} finally {
+			session.close();
+		}
+	}
+
+	private static List<Account> search(AccountController controller, int size){
+		final List<String> usernames = new ArrayList<String>();
+		for (int i = 0; i < size; i++)
+			usernames.add(TestDatabase.username(i));
+		return controller.createSearcher(SearchMode.BY_NON_NULL_FIELDS).in("username", usernames).search(Account.class, null);
+	}
+}
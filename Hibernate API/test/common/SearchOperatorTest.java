@@ -0,0 +1,135 @@
+package common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import model.Account;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import common.BaseController.SearchMode;
+import controller.AccountController;
+import controller.TestDatabase;
+
+/**
+ * @definition
+ * Prefixes of {@link SearchOperator#startsWith(String)} are matched literally with the escape character '!',
+ * and an empty {@link SearchOperator#in(java.util.Collection)} matches nothing, by both the HQL of {@link QueryShapeCache} and the Criteria.
+ */
+public class SearchOperatorTest {
+
+	private static final String NAME = "test-operators";
+	private static final List<String> USERNAMES = Arrays.asList("50%off", "50off", "500", "a_c", "abc", "x!y", "x!!z", "xy");
+
+	private static SessionFactory sessionFactory;
+
+	private Session session;
+	private AccountController controller;
+
+	@BeforeClass
+	public static void open(){
+		sessionFactory = TestDatabase.createBuilder(NAME).build();
+		final Session session = sessionFactory.openSession();
+		final Transaction tx = session.beginTransaction();
+		try {
+			for (String username : USERNAMES)
+				session.save(new Account(username, "password"));
+			tx.commit();
+		} finally {
+			session.close();
+		}
+	}
+
+	@AfterClass
+	public static void close(){
+		TestDatabase.close(NAME);
+	}
+
+	@Before
+	public void openSession(){
+		session = sessionFactory.openSession();
+		controller = new AccountController(session);
+	}
+
+	@After
+	public void closeSession(){
+		session.close();
+	}
+
+	@Test
+	public void escape(){
+		assertEquals("50!%off", SearchOperator.escape("50%off"));
+		assertEquals("a!_", SearchOperator.escape("a_"));
+		assertEquals("x!!!!", SearchOperator.escape("x!!"));
+		assertEquals("plain", SearchOperator.escape("plain"));
+	}
+
+	@Test
+	public void percentIsLiteral(){
+		assertPrefix("50%", "50%off");
+		assertPrefix("50", "50%off", "500", "50off");
+	}
+
+	@Test
+	public void underscoreIsLiteral(){
+		assertPrefix("a_", "a_c");
+		assertPrefix("a", "a_c", "abc");
+	}
+
+	@Test
+	public void escapeCharacterIsLiteral(){
+		assertPrefix("x!", "x!!z", "x!y");
+		assertPrefix("x!!", "x!!z");
+		assertPrefix("x", "x!!z", "x!y", "xy");
+	}
+
+	@Test
+	public void emptyInMatchesNothing(){
+		final List<String> none = Collections.emptyList();
+		assertEquals(0, searcher().in("username", none).search(Account.class, null).size());
+		assertEquals(0, controller.<Account>list(searcher().in("username", none).createCriteria(Account.class, null)).size());
+
+		final String hql = searcher().in("username", none).createQuery(Account.class, null).getQueryString();
+		assertTrue(hql, hql.endsWith("where 1 = 0"));
+	}
+
+	@Test
+	public void emptyInWithOtherRestrictions(){
+		final Account criteria = new Account();
+		criteria.setPassword("password");
+		final List<String> none = Collections.emptyList();
+		assertEquals(0, searcher().in("username", none).search(Account.class, criteria).size());
+		assertEquals(USERNAMES.size(), searcher().search(Account.class, criteria).size());
+	}
+
+	private BaseController.Searcher searcher(){
+		return controller.createSearcher(SearchMode.BY_NON_NULL_FIELDS);
+	}
+
+	/** Same result by the HQL and the Criteria, usernames are sorted */
+	private void assertPrefix(String prefix, String... expected){
+		assertEquals("hql of " + prefix, Arrays.asList(expected), usernames(searcher().startsWith("username", prefix).search(Account.class, null)));
+		assertEquals("criteria of " + prefix, Arrays.asList(expected),
+				usernames(controller.<Account>list(searcher().startsWith("username", prefix).createCriteria(Account.class, null))));
+	}
+
+	private static List<String> usernames(List<Account> accounts){
+		final List<String> usernames = new ArrayList<String>();
+		for (Account account : accounts)
+			usernames.add(account.getUsername());
+		Collections.sort(usernames);
+		return usernames;
+	}
+}
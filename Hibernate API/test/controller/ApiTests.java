@@ -0,0 +1,44 @@
+package controller;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+import common.AsyncControllerTest;
+import common.ControllerMetricsTest;
+import common.GetAllTest;
+import common.PooledConnectionProviderTest;
+import common.QueryShapeCacheTest;
+import common.SearchOperatorTest;
+
+/**
+ * @definition
+ * JUnit tests of the Hibernate API project, they run against embedded H2 databases, see {@link TestDatabase}. <br/>
+ * The class path is the output of 'Hibernate API/src', 'Hibernate API/test' and 'HibernateLibrary/src' with their
+ * resources (model/mapping.xml, test.cfg.xml), hibernate-core 4.2.5 with its dependencies, h2 1.3 and junit 4. <br/>
+ * On Java 9 and later, javassist 3.15 needs the JVM option '--add-opens java.base/java.lang=ALL-UNNAMED'
+ * to build the lazy proxies of the model.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * java --add-opens java.base/java.lang=ALL-UNNAMED -cp <class path> org.junit.runner.JUnitCore controller.ApiTests
+ * }
+ * </PRE>
+ */
+@RunWith(Suite.class)
+@SuiteClasses({
+	AsyncControllerTest.class,
+	ControllerMetricsTest.class,
+	FetchQueryCountTest.class,
+	GetAllTest.class,
+	PageCursorTest.class,
+	PooledConnectionProviderTest.class,
+	QueryShapeCacheTest.class,
+	SearchOperatorTest.class,
+	ReplicaRoutingTest.class,
+	RoleIndexTest.class,
+	SearchResultCacheTest.class,
+	UpsertCacheTest.class
+})
+public class ApiTests {
+}
@@ -0,0 +1,94 @@
+package controller;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.List;
+
+import model.Account;
+import model.Accountrole;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @definition
+ * Number of statements of the roles reads of {@link AccountController}, accounts with their account roles and roles
+ * must be read by one statement instead of one per association, which are batch fetched otherwise.
+ */
+public class FetchQueryCountTest {
+
+	private static final String NAME = "test-fetch";
+	private static final int ACCOUNTS = 20;
+
+	private static SessionFactory sessionFactory;
+	private static Statistics statistics;
+
+	private Session session;
+	private AccountController controller;
+
+	@BeforeClass
+	public static void open(){
+		sessionFactory = TestDatabase.open(NAME, ACCOUNTS, 0);
+		statistics = sessionFactory.getStatistics();
+		statistics.setStatisticsEnabled(true);
+	}
+
+	@AfterClass
+	public static void close(){
+		TestDatabase.close(NAME);
+	}
+
+	@Before
+	public void openSession(){
+		session = sessionFactory.openSession();
+		controller = new AccountController(session);
+		statistics.clear();
+	}
+
+	@After
+	public void closeSession(){
+		session.close();
+	}
+
+	@Test
+	public void accountsWithRolesByOneStatement(){
+		final List<Account> accounts = controller.getAccountsWithRoles();
+		assertEquals(ACCOUNTS, accounts.size());
+		assertEquals(ACCOUNTS * TestDatabase.ROLES_PER_ACCOUNT, readRoles(accounts));
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void accountWithRolesByOneStatement(){
+		final Account account = controller.getAccountWithRoles(TestDatabase.username(1));
+		assertEquals(TestDatabase.ROLES_PER_ACCOUNT, readRoles(Collections.singletonList(account)));
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	/** Lazy reads which are replaced by the fetches, accounts, account roles and roles are read by their own statements */
+	@Test
+	public void accountsWithoutFetchByStatementPerAssociation(){
+		final List<Account> accounts = controller.getAccounts();
+		readRoles(accounts);
+		assertEquals(3, statistics.getPrepareStatementCount());
+	}
+
+	/** Read the role names of the accounts, statements are prepared if they are not initialized */
+	private static int readRoles(List<Account> accounts){
+		int roles = 0;
+		for (Account account : accounts) {
+			for (Accountrole accountrole : account.getAccountroles()) {
+				accountrole.getRole().getRoleName();
+				roles++;
+			}
+		}
+		return roles;
+	}
+}
@@ -0,0 +1,128 @@
+package controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import model.User;
+import model.UserId;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import common.BaseController.PageCursor;
+import common.SearchPlan;
+
+/**
+ * @definition
+ * Keyset pagination of {@link UserController#pageUsers(User, int)} by the composite primary key,
+ * pages are in the configured key order (site, location, name), see {@link SearchPlan#KEY_ORDER}, and no user is skipped or repeated.
+ */
+public class PageCursorTest {
+
+	private static final String NAME = "test-paging";
+	private static final int USERS = 100;
+	private static final int PAGE_SIZE = 7;
+
+	private static SessionFactory sessionFactory;
+
+	private Session session;
+	private UserController controller;
+
+	@BeforeClass
+	public static void open(){
+		sessionFactory = TestDatabase.open(NAME, 0, USERS);
+	}
+
+	@AfterClass
+	public static void close(){
+		TestDatabase.close(NAME);
+	}
+
+	@Before
+	public void openSession(){
+		session = sessionFactory.openSession();
+		controller = new UserController(session);
+	}
+
+	@After
+	public void closeSession(){
+		session.close();
+	}
+
+	@Test
+	public void keyOrder(){
+		final SearchPlan plan = SearchPlan.of(sessionFactory, User.class);
+		assertEquals("id.site", plan.getIdentifierComponentName(0));
+		assertEquals("id.location", plan.getIdentifierComponentName(1));
+		assertEquals("id.name", plan.getIdentifierComponentName(2));
+	}
+
+	@Test
+	public void pagesAllUsersInKeyOrder(){
+		final List<UserId> ids = readAll(controller.pageUsers(null, PAGE_SIZE));
+		assertEquals(USERS, ids.size());
+		assertEquals(USERS, new HashSet<UserId>(ids).size());
+		assertInKeyOrder(ids);
+	}
+
+	@Test
+	public void pagesSearchResult(){
+		final List<UserId> ids = readAll(controller.pageUsers(new User(new UserId("site1", null, null)), PAGE_SIZE));
+		assertEquals(USERS / TestDatabase.SITES, ids.size());
+		for (UserId id : ids)
+			assertEquals("site1", id.getSite());
+		assertInKeyOrder(ids);
+	}
+
+	/** A cursor continues after a stored identifier, such as the last seen user of a previous request */
+	@Test
+	public void seekContinuesAfterLastSeen(){
+		final PageCursor<User> first = controller.pageUsers(null, PAGE_SIZE);
+		final List<UserId> ids = new ArrayList<UserId>();
+		for (int i = 0; i < 3; i++)
+			ids.addAll(idsOf(first.next()));
+		final Serializable lastSeen = first.getLastSeen();
+
+		session.clear();
+		ids.addAll(readAll(controller.pageUsers(null, PAGE_SIZE).seek(lastSeen)));
+		assertEquals(USERS, ids.size());
+		assertEquals(USERS, new HashSet<UserId>(ids).size());
+		assertInKeyOrder(ids);
+	}
+
+	private static List<UserId> readAll(PageCursor<User> cursor){
+		final List<UserId> ids = new ArrayList<UserId>();
+		while (cursor.hasNext())
+			ids.addAll(idsOf(cursor.next()));
+		assertFalse(cursor.hasNext());
+		return ids;
+	}
+	private static List<UserId> idsOf(List<User> users){
+		final List<UserId> ids = new ArrayList<UserId>(users.size());
+		for (User user : users)
+			ids.add(user.getId());
+		return ids;
+	}
+	/** Strictly increasing by (site, location, name) */
+	private static void assertInKeyOrder(List<UserId> ids){
+		for (int i = 1; i < ids.size(); i++) {
+			final UserId previous = ids.get(i - 1), current = ids.get(i);
+			int order = previous.getSite().compareTo(current.getSite());
+			if (order == 0) order = previous.getLocation().compareTo(current.getLocation());
+			if (order == 0) order = previous.getName().compareTo(current.getName());
+			assertTrue(previous.getSite() + "/" + previous.getLocation() + "/" + previous.getName() + " is not before " 
+					+ current.getSite() + "/" + current.getLocation() + "/" + current.getName(), order < 0);
+		}
+	}
+}
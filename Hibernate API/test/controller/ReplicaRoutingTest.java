@@ -0,0 +1,144 @@
+package controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import model.Account;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * @definition
+ * Read routing of {@link AccountController} between two embedded H2 databases, see BaseController.setReplicaSession. <br/>
+ * Both databases are seeded with the same accounts, then the password of one account is changed on the replica only,
+ * so the password tells which database answered a read.
+ */
+public class ReplicaRoutingTest {
+
+	private static final String PRIMARY = "test-primary";
+	private static final String REPLICA = "test-replica";
+	private static final String USERNAME = TestDatabase.username(1);
+	private static final String PRIMARY_PASSWORD = "password1";
+	private static final String REPLICA_PASSWORD = "replica";
+
+	private static SessionFactory primaryFactory;
+	private static SessionFactory replicaFactory;
+
+	private Session session;
+	private Session replicaSession;
+	private AccountController controller;
+
+	@BeforeClass
+	public static void open(){
+		primaryFactory = TestDatabase.open(PRIMARY, 10, 0);
+		replicaFactory = TestDatabase.open(REPLICA, 10, 0);
+		final Session session = replicaFactory.openSession();
+		try {
+			final Transaction tx = session.beginTransaction();
+			session.createSQLQuery("update database1.account set Password = :password where Username = :username")
+					.setString("password", REPLICA_PASSWORD).setString("username", USERNAME).executeUpdate();
+			tx.commit();
+		} finally {
+			session.close();
+		}
+	}
+
+	@AfterClass
+	public static void close(){
+		TestDatabase.close(PRIMARY);
+		TestDatabase.close(REPLICA);
+	}
+
+	@Before
+	public void openSessions(){
+		session = primaryFactory.openSession();
+		replicaSession = replicaFactory.openSession();
+		controller = new AccountController(session, replicaSession);
+	}
+
+	@After
+	public void closeSessions(){
+		session.close();
+		replicaSession.close();
+	}
+
+	@Test
+	public void readsWithoutTransactionUseReplica(){
+		assertEquals(REPLICA_PASSWORD, controller.getAccount(USERNAME).getPassword());
+		assertEquals(REPLICA_PASSWORD, controller.searchAccounts(new Account(USERNAME, null)).get(0).getPassword());
+		assertEquals(0, session.getStatistics().getEntityCount());
+	}
+
+	@Test
+	public void readsInTransactionUsePrimary(){
+		final Transaction tx = session.beginTransaction();
+		try {
+			assertEquals(PRIMARY_PASSWORD, controller.getAccount(USERNAME).getPassword());
+			assertEquals(0, replicaSession.getStatistics().getEntityCount());
+		} finally {
+			tx.rollback();
+		}
+	}
+
+	@Test
+	public void readAfterWriteInTransactionUsesPrimary(){
+		final Transaction tx = session.beginTransaction();
+		try {
+			final Account account = new Account("written", "secret");
+			controller.insertAccount(account);
+			assertSame(account, controller.getAccount("written"));
+		} finally {
+			tx.rollback();
+		}
+	}
+
+	@Test
+	public void savesAccountReadFromReplica(){
+		final Account account = controller.getAccount(USERNAME);
+		assertEquals(REPLICA_PASSWORD, account.getPassword());
+
+		account.setPassword("changed");
+		final Transaction tx = session.beginTransaction();
+		try {
+			controller.saveAccount(account);
+			tx.commit();
+		} finally {
+			if (tx.isActive()) tx.rollback();
+		}
+
+		try {
+			assertEquals("changed", password(primaryFactory));
+			assertEquals(REPLICA_PASSWORD, password(replicaFactory));
+		} finally {
+			restorePrimaryPassword();
+		}
+	}
+
+	private static String password(SessionFactory sessionFactory){
+		final Session session = sessionFactory.openSession();
+		try {
+			return ((Account) session.get(Account.class, USERNAME)).getPassword();
+		} finally {
+			session.close();
+		}
+	}
+
+	private static void restorePrimaryPassword(){
+		final Session session = primaryFactory.openSession();
+		try {
+			final Transaction tx = session.beginTransaction();
+			((Account) session.get(Account.class, USERNAME)).setPassword(PRIMARY_PASSWORD);
+			tx.commit();
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import model.Account;
+import model.Accountrole;
+import model.Role;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @definition
+ * Updates of {@link RoleIndex} after committed Accountrole and Account changes. <br/>
+ * The pool has one connection, so a query inside the commit callbacks would time out instead of updating the index.
+ */
+public class RoleIndexTest {
+
+	private static final String NAME = "test-roles";
+	private static final int ACCOUNTS = 10;
+
+	private static SessionFactory sessionFactory;
+	private static RoleIndex index;
+
+	@BeforeClass
+	public static void open(){
+		sessionFactory = TestDatabase.createBuilder(NAME)
+				.setConnectionPool(1, 1)
+				.setConnectionAcquireTimeout(2000)
+				.build();
+		TestDatabase.seed(sessionFactory, ACCOUNTS, 0);
+		index = RoleIndex.of(sessionFactory);
+	}
+
+	@AfterClass
+	public static void close(){
+		TestDatabase.close(NAME);
+	}
+
+	@Test
+	public void loadsSeededRoles(){
+		assertTrue(index.hasRole(TestDatabase.username(0), TestDatabase.roleName(0, 0)));
+		assertTrue(index.hasRole(TestDatabase.username(0), TestDatabase.roleName(0, 1)));
+		assertFalse(index.hasRole(TestDatabase.username(0), TestDatabase.roleName(0, 2)));
+	}
+
+	@Test
+	public void grant(){
+		final String username = TestDatabase.username(1);
+		final String roleName = TestDatabase.roleName(1, 5);
+		assertFalse(index.hasRole(username, roleName));
+
+		final Session session = sessionFactory.openSession();
+		try {
+			final Transaction tx = session.beginTransaction();
+			session.save(new Accountrole((Role) session.load(Role.class, roleName), (Account) session.load(Account.class, username)));
+			tx.commit();
+		} finally {
+			session.close();
+		}
+		assertTrue(index.hasRole(username, roleName));
+	}
+
+	/** The bit is kept while another row of the same role exists */
+	@Test
+	public void revoke(){
+		final String username = TestDatabase.username(2);
+		final String roleName = TestDatabase.roleName(2, 0);
+		final Session session = sessionFactory.openSession();
+		try {
+			Transaction tx = session.beginTransaction();
+			session.save(new Accountrole((Role) session.load(Role.class, roleName), (Account) session.load(Account.class, username)));
+			tx.commit();
+
+			final List<Accountrole> rows = rows(session, username, roleName);
+			assertEquals(2, rows.size());
+			tx = session.beginTransaction();
+			session.delete(rows.get(0));
+			tx.commit();
+			assertTrue(index.hasRole(username, roleName));
+
+			tx = session.beginTransaction();
+			session.delete(rows.get(1));
+			tx.commit();
+		} finally {
+			session.close();
+		}
+		assertFalse(index.hasRole(username, roleName));
+		assertTrue(index.hasRole(username, TestDatabase.roleName(2, 1)));
+	}
+
+	@Test
+	public void updateMovesRole(){
+		final String username = TestDatabase.username(3);
+		final String oldRoleName = TestDatabase.roleName(3, 0);
+		final String newRoleName = TestDatabase.roleName(3, 5);
+		final Session session = sessionFactory.openSession();
+		try {
+			final Transaction tx = session.beginTransaction();
+			rows(session, username, oldRoleName).get(0).setRole((Role) session.load(Role.class, newRoleName));
+			tx.commit();
+		} finally {
+			session.close();
+		}
+		assertFalse(index.hasRole(username, oldRoleName));
+		assertTrue(index.hasRole(username, newRoleName));
+	}
+
+	@Test
+	public void accountDelete(){
+		final String username = TestDatabase.username(4);
+		final int size = index.size();
+		final Session session = sessionFactory.openSession();
+		try {
+			final Transaction tx = session.beginTransaction();
+			for (Object row : session.createQuery("from Accountrole ar where ar.account.username = :username").setString("username", username).list())
+				session.delete(row);
+			session.delete(session.get(Account.class, username));
+			tx.commit();
+		} finally {
+			session.close();
+		}
+		assertFalse(index.hasRole(username, TestDatabase.roleName(4, 0)));
+		assertFalse(index.hasRole(username, TestDatabase.roleName(4, 1)));
+		assertEquals(size - 1, index.size());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Accountrole> rows(Session session, String username, String roleName){
+		return session.createQuery("from Accountrole ar where ar.account.username = :username and ar.role.roleName = :roleName order by ar.id")
+				.setString("username", username).setString("roleName", roleName).list();
+	}
+}
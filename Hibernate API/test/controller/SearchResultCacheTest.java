@@ -0,0 +1,98 @@
+package controller;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import model.Account;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import common.HibernateUtil;
+import common.HibernateUtil.UnitOfWork;
+import common.SearchResultCache;
+
+/**
+ * @definition
+ * Searches of {@link AccountController} inside transactions, they are served from {@link SearchResultCache}
+ * unless the Session wrote accounts in the transaction, then the search must see the uncommitted accounts.
+ */
+public class SearchResultCacheTest {
+
+	private static final String NAME = "test-search-cache";
+	private static final int ACCOUNTS = 10;
+
+	private static SessionFactory sessionFactory;
+	private static SearchResultCache cache;
+
+	@BeforeClass
+	public static void open(){
+		sessionFactory = TestDatabase.createBuilder(NAME).enableSearchResultCache(100).build();
+		TestDatabase.seed(sessionFactory, ACCOUNTS, 0);
+		cache = SearchResultCache.of(sessionFactory);
+	}
+
+	@AfterClass
+	public static void close(){
+		TestDatabase.close(NAME);
+	}
+
+	@Test
+	public void hitInsideReadOnly(){
+		readOnlySearch();
+		final long hits = cache.getStatistics().getHits();
+		assertEquals(ACCOUNTS, readOnlySearch().size());
+		assertEquals(hits + 1, cache.getStatistics().getHits());
+	}
+
+	@Test
+	public void flushedInsertBypassesCache(){
+		readOnlySearch();
+		final Session session = sessionFactory.openSession();
+		final Transaction tx = session.beginTransaction();
+		try {
+			final AccountController controller = new AccountController(session);
+			assertEquals(ACCOUNTS, controller.searchAccountsByUsernamePrefix("user").size());
+			controller.insertAccount(new Account("user-flushed", "secret"));
+			session.flush();
+
+			final long hits = cache.getStatistics().getHits();
+			assertEquals(ACCOUNTS + 1, controller.searchAccountsByUsernamePrefix("user").size());
+			assertEquals(hits, cache.getStatistics().getHits());
+		} finally {
+			tx.rollback();
+			session.close();
+		}
+		assertEquals(ACCOUNTS, readOnlySearch().size());		// the uncommitted account was not cached
+	}
+
+	@Test
+	public void pendingInsertBypassesCache(){
+		readOnlySearch();
+		final Session session = sessionFactory.openSession();
+		final Transaction tx = session.beginTransaction();
+		try {
+			final AccountController controller = new AccountController(session);
+			controller.insertAccount(new Account("user-pending", "secret"));
+			assertEquals(ACCOUNTS + 1, controller.searchAccountsByUsernamePrefix("user").size());	// flushed by the query
+		} finally {
+			tx.rollback();
+			session.close();
+		}
+		assertEquals(ACCOUNTS, readOnlySearch().size());
+	}
+
+	private static List<Account> readOnlySearch(){
+		return HibernateUtil.readOnly(sessionFactory, new UnitOfWork<List<Account>>() {
+			@Override
+			public List<Account> run(Session session) {
+				return new AccountController(session).searchAccountsByUsernamePrefix("user");
+			}
+		});
+	}
+}
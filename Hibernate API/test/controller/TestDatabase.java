@@ -0,0 +1,119 @@
+package controller;
+
+import model.Account;
+import model.Accountrole;
+import model.Role;
+import model.User;
+import model.UserId;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Environment;
+
+import common.HibernateUtil;
+import common.HibernateUtil.SessionFactoryBuilder;
+
+/**
+ * @definition
+ * Embedded H2 in-memory databases of the tests, each SessionFactory name has its own database. <br/>
+ * The mappings are the same as the application, model/mapping.xml, and the schema is created by hbm2ddl. <br/>
+ * Seeded rows are deterministic, see {@link #username(int)}, {@link #roleName(int)} and {@link #userId(int)}.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * SessionFactory sessionFactory = TestDatabase.open("test-search", 10, 100);
+ * ...
+ * TestDatabase.close("test-search");
+ * }
+ * </PRE>
+ */
+public class TestDatabase {
+
+	public static final String CONFIGURATION = "/test.cfg.xml";
+	public static final String MAPPING = "/model/mapping.xml";
+	/** Number of seeded roles, every account has {@link #ROLES_PER_ACCOUNT} of them */
+	public static final int ROLES = 10;
+	public static final int ROLES_PER_ACCOUNT = 2;
+	/** Number of distinct sites and locations of seeded users */
+	public static final int SITES = 4;
+	public static final int LOCATIONS = 16;
+
+	/**
+	 * Builder of a SessionFactory whose database is 'jdbc:h2:mem:name', the schema is created when it is built
+	 * @param name name of the SessionFactory and the database
+	 */
+	public static SessionFactoryBuilder createBuilder(String name){
+		return HibernateUtil.createSessionFactoryBuilder()
+				.setName(name)
+				.setPropertyConfiguration(CONFIGURATION)
+				.addConfiguration(MAPPING)
+				.setProperty(Environment.URL, url(name))
+				.setProperty(Environment.HBM2DDL_AUTO, "create")
+				.setJdbcBatchSize(50);
+	}
+	/** URL of the database, add settings such as ';MVCC=TRUE' */
+	public static String url(String name){
+		return "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;INIT=CREATE SCHEMA IF NOT EXISTS database1";
+	}
+
+	/** Build the SessionFactory by {@link #createBuilder(String)} and seed the rows */
+	public static SessionFactory open(String name, int accounts, int users){
+		final SessionFactory sessionFactory = createBuilder(name).build();
+		seed(sessionFactory, accounts, users);
+		return sessionFactory;
+	}
+
+	/** Close the SessionFactory and drop its database */
+	public static void close(String name){
+		if (!HibernateUtil.hasSessionFactory(name)) return;
+		final Session session = HibernateUtil.getSessionFactory(name).openSession();
+		try {
+			session.createSQLQuery("DROP ALL OBJECTS").executeUpdate();
+		} finally {
+			session.close();
+		}
+		HibernateUtil.closeSessionFactory(name);
+	}
+
+	public static String username(int i){
+		return "user" + i;
+	}
+	public static String password(int i){
+		return "password" + i;
+	}
+	public static String roleName(int i){
+		return "role" + i;
+	}
+	/** Role names of the account, see {@link #ROLES_PER_ACCOUNT} */
+	public static String roleName(int account, int r){
+		return roleName((account + r) % ROLES);
+	}
+	public static UserId userId(int i){
+		return new UserId("site" + (i % SITES), "location" + (i % LOCATIONS), "name" + i);
+	}
+
+	/** Seed roles, accounts with their account roles, and users whose money is their index */
+	public static void seed(SessionFactory sessionFactory, int accounts, int users){
+		final Session session = sessionFactory.openSession();
+		final Transaction tx = session.beginTransaction();
+		try {
+			for (int i = 0; i < ROLES; i++)
+				session.save(new Role(roleName(i)));
+			for (int i = 0; i < accounts; i++) {
+				final Account account = new Account(username(i), password(i));
+				session.save(account);
+				for (int r = 0; r < ROLES_PER_ACCOUNT; r++)
+					session.save(new Accountrole((Role) session.load(Role.class, roleName(i, r)), account));
+			}
+			for (int i = 0; i < users; i++)
+				session.save(new User(userId(i), (long) i));
+			tx.commit();
+		} catch (RuntimeException e) {
+			tx.rollback();
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+}
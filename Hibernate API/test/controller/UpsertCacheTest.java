@@ -0,0 +1,100 @@
+package controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import model.Account;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Environment;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import common.BaseController;
+
+/**
+ * @definition
+ * Caches after a native upsert of BaseController.upsertAll, another Session which reads the old row before the commit
+ * must not leave it in the second-level cache or in a cached search after the commit.
+ */
+public class UpsertCacheTest {
+
+	private static final String NAME = "test-upsert";
+	private static final String USERNAME = TestDatabase.username(1);
+	private static final String OLD_PASSWORD = "password1";
+	private static final String NEW_PASSWORD = "upserted";
+
+	private static SessionFactory sessionFactory;
+
+	@BeforeClass
+	public static void open(){
+		// MVCC, so that the other Session reads the committed row instead of waiting for the lock
+		sessionFactory = TestDatabase.createBuilder(NAME)
+				.setProperty(Environment.URL, TestDatabase.url(NAME) + ";MVCC=TRUE")
+				.enableSecondLevelCache(false)
+				.enableSearchResultCache(100)
+				.build();
+		final Session session = sessionFactory.openSession();
+		try {
+			final Transaction tx = session.beginTransaction();
+			session.save(new Account(USERNAME, OLD_PASSWORD));
+			tx.commit();
+		} finally {
+			session.close();
+		}
+	}
+
+	@AfterClass
+	public static void close(){
+		TestDatabase.close(NAME);
+	}
+
+	@Test
+	public void readsBeforeCommitAreNotCachedAfterIt(){
+		final Session session = sessionFactory.openSession();
+		final Session other = sessionFactory.openSession();
+		try {
+			final Transaction tx = session.beginTransaction();
+			new Upserter(session).upsert(new Account(USERNAME, NEW_PASSWORD));
+
+			// the old row is read and cached while the upsert is not committed
+			assertEquals(OLD_PASSWORD, ((Account) other.get(Account.class, USERNAME)).getPassword());
+			assertEquals(1, new Upserter(other).searchByPassword(OLD_PASSWORD).size());
+			assertTrue(sessionFactory.getCache().containsEntity(Account.class, USERNAME));
+
+			tx.commit();
+		} finally {
+			session.close();
+			other.close();
+		}
+
+		final Session after = sessionFactory.openSession();
+		try {
+			assertEquals(NEW_PASSWORD, ((Account) after.get(Account.class, USERNAME)).getPassword());
+			assertEquals(0, new Upserter(after).searchByPassword(OLD_PASSWORD).size());
+		} finally {
+			after.close();
+		}
+	}
+
+
+
+//	INNER CLASS		\\
+	private static class Upserter extends BaseController{
+		Upserter(Session session){
+			super(session);
+		}
+		void upsert(Account account){
+			upsertAll(Account.class, Collections.singletonList(account));
+		}
+		List<Account> searchByPassword(String password){
+			return createSearcher(SearchMode.BY_NON_NULL_FIELDS).search(Account.class, new Account(null, password));
+		}
+	}
+}
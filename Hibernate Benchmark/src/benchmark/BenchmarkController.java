@@ -0,0 +1,47 @@
+package benchmark;
+
+import java.util.List;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+
+import common.BaseController;
+import common.BatchResult;
+import common.ResultStream;
+
+/**
+ * @definition
+ * Controller of the benchmarks, it exposes the protected helpers of {@link BaseController} as they are used by the user-classes, such as AccountController.
+ */
+public class BenchmarkController extends BaseController {
+
+	public BenchmarkController(Session session) {
+		super(session);
+	}
+
+	/** Same as createSearcher(SearchMode.BY_NON_NULL_FIELDS).createCriteria(searchEntity, entityCriteria), the Criteria is not executed */
+	public <T> Criteria createCriteria(Class<T> searchEntity, T entityCriteria){
+		return createSearcher(SearchMode.BY_NON_NULL_FIELDS).createCriteria(searchEntity, entityCriteria);
+	}
+	/** Same as list(createCriteria(searchEntity, entityCriteria)) */
+	public <T> List<T> search(Class<T> searchEntity, T entityCriteria){
+		return list(createCriteria(searchEntity, entityCriteria));
+	}
+
+	@Override
+	public <T> List<T> list(Class<T> listEntity) {
+		return super.list(listEntity);
+	}
+	@Override
+	public <T> List<T> list(String listQuery) {
+		return super.list(listQuery);
+	}
+	@Override
+	public <T> ResultStream<T> stream(String streamQuery) {
+		return super.stream(streamQuery);
+	}
+	@Override
+	public <T> BatchResult insertAll(Iterable<T> entities) {
+		return super.insertAll(entities);
+	}
+}
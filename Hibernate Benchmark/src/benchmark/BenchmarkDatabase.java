@@ -0,0 +1,126 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import model.Account;
+import model.Accountrole;
+import model.Role;
+import model.User;
+import model.UserId;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Environment;
+
+import common.HibernateUtil;
+import common.HibernateUtil.SessionFactoryBuilder;
+
+/**
+ * @definition
+ * Embedded H2 in-memory databases of the benchmarks, each SessionFactory name has its own database, so benchmarks do not see the rows of each other. <br/>
+ * The mappings are the same as the application, model/mapping.xml of Hibernate API, and the schema is created by hbm2ddl. <br/>
+ * Seeded rows are deterministic, see {@link #username(int)}, {@link #roleName(int)} and {@link #userId(int)}.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * SessionFactory sessionFactory = BenchmarkDatabase.open("search", 1000, 1000);
+ * ...
+ * BenchmarkDatabase.close("search");
+ * }
+ * </PRE>
+ */
+public class BenchmarkDatabase {
+
+	public static final String CONFIGURATION = "/benchmark.cfg.xml";
+	public static final String MAPPING = "/model/mapping.xml";
+	/** Number of seeded roles, every account has {@link #ROLES_PER_ACCOUNT} of them */
+	public static final int ROLES = 10;
+	public static final int ROLES_PER_ACCOUNT = 2;
+	/** Number of distinct sites and locations of seeded users, a (site, location) search matches users / LOCATIONS rows */
+	public static final int SITES = 4;
+	public static final int LOCATIONS = 16;
+
+	/**
+	 * Builder of a SessionFactory whose database is 'jdbc:h2:mem:name', the schema is not created
+	 * @param name name of the SessionFactory and the database
+	 */
+	public static SessionFactoryBuilder createBuilder(String name){
+		return HibernateUtil.createSessionFactoryBuilder()
+				.setName(name)
+				.setPropertyConfiguration(CONFIGURATION)
+				.addConfiguration(MAPPING)
+				.setProperty(Environment.URL, "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;INIT=CREATE SCHEMA IF NOT EXISTS database1")
+				.setJdbcBatchSize(50);
+	}
+
+	/**
+	 * Build the SessionFactory, create the schema and seed the rows
+	 * @param accounts number of accounts, each account has {@link #ROLES_PER_ACCOUNT} account roles
+	 * @param users number of users, their composite keys are spread over {@link #SITES} sites and {@link #LOCATIONS} locations
+	 */
+	public static SessionFactory open(String name, int accounts, int users){
+		final SessionFactory sessionFactory = createBuilder(name)
+				.setProperty(Environment.HBM2DDL_AUTO, "create")
+				.build();
+		seed(sessionFactory, accounts, users);
+		return sessionFactory;
+	}
+
+	/** Close the SessionFactory and drop its database */
+	public static void close(String name){
+		if (!HibernateUtil.hasSessionFactory(name)) return;
+		final Session session = HibernateUtil.getSessionFactory(name).openSession();
+		try {
+			session.createSQLQuery("DROP ALL OBJECTS").executeUpdate();
+		} finally {
+			session.close();
+		}
+		HibernateUtil.closeSessionFactory(name);
+	}
+
+	public static String username(int i){
+		return "user" + i;
+	}
+	public static String roleName(int i){
+		return "role" + i;
+	}
+	public static UserId userId(int i){
+		return new UserId("site" + (i % SITES), "location" + (i % LOCATIONS), "name" + i);
+	}
+
+	private static void seed(SessionFactory sessionFactory, int accounts, int users){
+		final Session session = sessionFactory.openSession();
+		final Transaction tx = session.beginTransaction();
+		try {
+			final BenchmarkController controller = new BenchmarkController(session);
+
+			final List<Role> roles = new ArrayList<Role>(ROLES);
+			for (int i = 0; i < ROLES; i++)
+				roles.add(new Role(roleName(i)));
+			controller.insertAll(roles);
+
+			final List<Object> rows = new ArrayList<Object>(accounts * (ROLES_PER_ACCOUNT + 1));
+			for (int i = 0; i < accounts; i++) {
+				final Account account = new Account(username(i), "password" + i);
+				rows.add(account);
+				for (int r = 0; r < ROLES_PER_ACCOUNT; r++)
+					rows.add(new Accountrole((Role) session.load(Role.class, roleName((i + r) % ROLES)), account));
+			}
+			controller.insertAll(rows);
+
+			final List<User> userRows = new ArrayList<User>(users);
+			for (int i = 0; i < users; i++)
+				userRows.add(new User(userId(i), (long) i));
+			controller.insertAll(userRows);
+
+			tx.commit();
+		} catch (RuntimeException e) {
+			tx.rollback();
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @definition
+ * Run the benchmarks of this project and write the results as JSON, so runs of two versions can be compared, such as before a Hibernate upgrade. <br/>
+ * Arguments are JMH command line options, such as a benchmark regex or '-f 1'. The result is written to {@link #DEFAULT_RESULT} unless '-rff' is given. <br/>
+ * The class path is this project, Hibernate API, HibernateLibrary, the Hibernate jars, H2 and JMH (jmh-core, jopt-simple, commons-math3).
+ * Compile with jmh-generator-annprocess on the class path so that the benchmark classes are generated, JMH needs Java 7 or later.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * java -cp <class path> benchmark.BenchmarkRunner				// every benchmark
+ * java -cp <class path> benchmark.BenchmarkRunner Search -rff search.json	// SearchBenchmark only
+ * }
+ * </PRE>
+ */
+public class BenchmarkRunner {
+
+	public static final String DEFAULT_RESULT = "benchmark-result.json";
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		final CommandLineOptions commandLine = new CommandLineOptions(args);
+		final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if (commandLine.getIncludes().isEmpty())
+			options.include(BenchmarkRunner.class.getPackage().getName() + "\\..*Benchmark");
+		if (!commandLine.getResultFormat().hasValue())
+			options.resultFormat(ResultFormatType.JSON);
+		if (!commandLine.getResult().hasValue())
+			options.result(DEFAULT_RESULT);
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,95 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import model.Account;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.BatchResult;
+
+/**
+ * @definition
+ * Inserts of {@link #BATCH} accounts in one transaction, saved one by one as AccountController.insertAccount,
+ * or by BaseController.insertAll with JDBC batching. The score is per account. <br/>
+ * Usernames are never reused, the table grows during the run as the application does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertBenchmark {
+
+	private static final String NAME = "insert";
+	public static final int BATCH = 100;
+
+	private SessionFactory sessionFactory;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void open(){
+		sessionFactory = BenchmarkDatabase.open(NAME, 0, 0);
+	}
+
+	@TearDown(Level.Trial)
+	public void close(){
+		BenchmarkDatabase.close(NAME);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int insertOneByOne(){
+		final Session session = sessionFactory.openSession();
+		try {
+			final Transaction tx = session.beginTransaction();
+			for (Account account : nextAccounts())
+				session.save(account);
+			tx.commit();
+			return BATCH;
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public BatchResult insertAll(){
+		final Session session = sessionFactory.openSession();
+		try {
+			final Transaction tx = session.beginTransaction();
+			final BatchResult result = new BenchmarkController(session).insertAll(nextAccounts());
+			tx.commit();
+			return result;
+		} finally {
+			session.close();
+		}
+	}
+
+	private List<Account> nextAccounts(){
+		final List<Account> accounts = new ArrayList<Account>(BATCH);
+		for (int i = 0; i < BATCH; i++) {
+			final int id = next++;
+			accounts.add(new Account("insert" + id, "password" + id));
+		}
+		return accounts;
+	}
+}
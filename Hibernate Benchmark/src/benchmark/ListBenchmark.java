@@ -0,0 +1,94 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import model.Account;
+import model.User;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import common.ResultStream;
+
+/**
+ * @definition
+ * Bulk reads of BaseController, list by entity class (Criteria), list by HQL and streaming, over all seeded rows. <br/>
+ * The Session is cleared after each operation, so every operation loads all rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListBenchmark {
+
+	private static final String NAME = "list";
+
+	@Param({"1000", "10000"})
+	public int rows;
+
+	private Session session;
+	private BenchmarkController controller;
+
+	@Setup(Level.Trial)
+	public void open(){
+		final SessionFactory sessionFactory = BenchmarkDatabase.open(NAME, rows, rows);
+		session = sessionFactory.openSession();
+		controller = new BenchmarkController(session);
+	}
+
+	@TearDown(Level.Trial)
+	public void close(){
+		session.close();
+		BenchmarkDatabase.close(NAME);
+	}
+
+	@Benchmark
+	public List<Account> listByClass(){
+		final List<Account> accounts = controller.list(Account.class);
+		session.clear();
+		return accounts;
+	}
+	@Benchmark
+	public List<Account> listByQuery(){
+		final List<Account> accounts = controller.list("from Account");
+		session.clear();
+		return accounts;
+	}
+	@Benchmark
+	public List<User> listCompositeKey(){
+		final List<User> users = controller.list(User.class);
+		session.clear();
+		return users;
+	}
+	@Benchmark
+	public int stream(Blackhole blackhole){
+		final ResultStream<Account> accounts = controller.stream("from Account");
+		int count = 0;
+		try {
+			while (accounts.hasNext()) {
+				blackhole.consume(accounts.next());
+				count++;
+			}
+		} finally {
+			accounts.close();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,148 @@
+package benchmark;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import model.Account;
+import model.User;
+import model.UserId;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import common.EntityMetadata;
+import common.SearchPlan;
+
+/**
+ * @definition
+ * Searcher of BaseController by a single key entity, {@link Account}, and a composite key entity, {@link User}. <br/>
+ * createCriteria* measure building the Criteria only, search* execute it as well. The Session is cleared after each search,
+ * so every search loads its entities. entityMetadata* measure the per-call reflection of {@link EntityMetadata}, compared to {@link SearchPlan}. <br/>
+ * compositeKey* read the properties of a {@link UserId}: compositeKeyByDeclaredFields looks the fields up on every call as Searcher did before {@link SearchPlan},
+ * compositeKeyByField uses cached accessible fields, and compositeKeyByComponent uses the component getters of {@link SearchPlan#getIdentifierComponentValue(java.io.Serializable, int)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+	private static final String NAME = "search";
+
+	@Param({"1000"})
+	public int rows;
+
+	private SessionFactory sessionFactory;
+	private Session session;
+	private BenchmarkController controller;
+	private ClassMetadata accountMetadata;
+	private ClassMetadata userMetadata;
+
+	/** username = ?, matches one account */
+	private Account accountCriteria;
+	/** site = ? and location = ?, matches rows / {@link BenchmarkDatabase#LOCATIONS} users */
+	private User userCriteria;
+	/** Full composite key of a seeded user */
+	private UserId userId;
+	private SearchPlan userPlan;
+	/** Declared fields of UserId, accessible */
+	private Field[] userIdFields;
+
+	@Setup(Level.Trial)
+	public void open(){
+		sessionFactory = BenchmarkDatabase.open(NAME, rows, rows);
+		session = sessionFactory.openSession();
+		controller = new BenchmarkController(session);
+		accountMetadata = sessionFactory.getClassMetadata(Account.class);
+		userMetadata = sessionFactory.getClassMetadata(User.class);
+
+		accountCriteria = new Account();
+		accountCriteria.setUsername(BenchmarkDatabase.username(rows / 2));
+		final UserId userId = BenchmarkDatabase.userId(rows / 2);
+		userCriteria = new User(new UserId(userId.getSite(), userId.getLocation(), null));
+
+		this.userId = userId;
+		userPlan = SearchPlan.of(sessionFactory, User.class);
+		userIdFields = UserId.class.getDeclaredFields();
+		for (Field field : userIdFields)
+			field.setAccessible(true);
+	}
+
+	@TearDown(Level.Trial)
+	public void close(){
+		session.close();
+		BenchmarkDatabase.close(NAME);
+	}
+
+	@Benchmark
+	public Criteria createCriteriaSingleKey(){
+		return controller.createCriteria(Account.class, accountCriteria);
+	}
+	@Benchmark
+	public Criteria createCriteriaCompositeKey(){
+		return controller.createCriteria(User.class, userCriteria);
+	}
+
+	@Benchmark
+	public List<Account> searchSingleKey(){
+		final List<Account> accounts = controller.search(Account.class, accountCriteria);
+		session.clear();
+		return accounts;
+	}
+	@Benchmark
+	public List<User> searchCompositeKey(){
+		final List<User> users = controller.search(User.class, userCriteria);
+		session.clear();
+		return users;
+	}
+
+	@Benchmark
+	public EntityMetadata entityMetadataSingleKey(){
+		return new EntityMetadata(accountCriteria, accountMetadata);
+	}
+	@Benchmark
+	public EntityMetadata entityMetadataCompositeKey(){
+		return new EntityMetadata(userCriteria, userMetadata);
+	}
+	@Benchmark
+	public SearchPlan searchPlan(){
+		return SearchPlan.of(sessionFactory, User.class);
+	}
+
+	@Benchmark
+	public void compositeKeyByDeclaredFields(Blackhole blackhole) throws IllegalAccessException{
+		for (Field field : userId.getClass().getDeclaredFields()) {
+			field.setAccessible(true);
+			blackhole.consume(field.get(userId));
+		}
+	}
+	@Benchmark
+	public void compositeKeyByField(Blackhole blackhole) throws IllegalAccessException{
+		for (Field field : userIdFields)
+			blackhole.consume(field.get(userId));
+	}
+	@Benchmark
+	public void compositeKeyByComponent(Blackhole blackhole){
+		for (int i = 0; i < userPlan.identifierComponentSize(); i++)
+			blackhole.consume(userPlan.getIdentifierComponentValue(userId, i));
+	}
+}
@@ -0,0 +1,45 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.HibernateUtil;
+
+/**
+ * @definition
+ * SessionFactoryBuilder.build of the application mappings, the phases of one build are reported by SessionFactoryBuilder.getStartupReport. <br/>
+ * Each build is measured once and the SessionFactory is closed after it, the schema is not created so only the startup path is measured.
+ * The first builds of a fork include class loading, they are the warmup iterations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(3)
+public class StartupBenchmark {
+
+	private static final String NAME = "startup";
+
+	@TearDown(Level.Invocation)
+	public void close(){
+		HibernateUtil.closeSessionFactory(NAME);
+	}
+
+	@Benchmark
+	public SessionFactory build(){
+		return BenchmarkDatabase.createBuilder(NAME).build();
+	}
+}
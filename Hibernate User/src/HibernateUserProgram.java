@@ -16,10 +16,11 @@ import model.UserId;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.Transaction;
 import org.hibernate.metadata.ClassMetadata;
 
 import common.HibernateUtil;
+import common.HibernateUtil.UnitOfWork;
+import common.HibernateUtil.SessionFactoryBuilder;
 import controller.AccountController;
 import controller.MySystemControllerWrapper;
 import evo.util.Display;
@@ -100,13 +101,16 @@ public class HibernateUserProgram {
 		}
 	}
 	
-	private static void doSearchAccounts() {		
-		Session session = HibernateUtil.getSessionFactory().openSession();
-		
-		AccountController controller = new AccountController(session);
-		
-		Account criteria = createAccountCriteria();
-		List<Account> accounts = controller.searchAccounts(criteria);
+	private static void doSearchAccounts() {
+		List<Account> accounts = HibernateUtil.readOnly(new UnitOfWork<List<Account>>() {
+			@Override
+			public List<Account> run(Session session) {
+				AccountController controller = new AccountController(session);
+				
+				Account criteria = createAccountCriteria();
+				return controller.searchAccounts(criteria);
+			}
+		});
 		
 		Display.display(accounts);
 	}
@@ -121,56 +125,49 @@ public class HibernateUserProgram {
 	}
 //
 	private static void doInsertAccount() {
-		Session session = null;
-		Transaction tx = null;
-		
 		try {
-			session = HibernateUtil.getSessionFactory().openSession();
-			tx = session.beginTransaction();
-			
-			AccountController controller = MySystemControllerWrapper.getDefaultAccountController(session);
-			
-			controller.insertAccount(new Account("Woody", "123456"));
-			
-			tx.commit();
+			HibernateUtil.inTransaction(new UnitOfWork<Void>() {
+				@Override
+				public Void run(Session session) {
+					AccountController controller = MySystemControllerWrapper.getDefaultAccountController(session);
+					
+					controller.insertAccount(new Account("Woody", "123456"));
+					return null;
+				}
+			});
 		} catch (Exception e) {
-			e.printStackTrace();
-			if (tx != null)
-				tx.rollback();
-		} finally {
-			if (session != null)
-				session.close();
+			e.printStackTrace();	// the transaction was rolled back and the session was closed
 		}
 	}
 
 	private static void doGetAccounts() {
-		Session session = null;
-		
 		try {
-			session = HibernateUtil.getSessionFactory().openSession();
-			
-			AccountController controller = new AccountController(session);
-			
-			for (Account account : controller.getAccounts()) {
-				System.out.println(String.format("Account\tUsername:%s\tPassword:%s", account.getUsername(), account.getPassword()));
-			}
-			
+			HibernateUtil.readOnly(new UnitOfWork<Void>() {
+				@Override
+				public Void run(Session session) {
+					AccountController controller = new AccountController(session);
+					
+					for (Account account : controller.getAccounts()) {
+						System.out.println(String.format("Account\tUsername:%s\tPassword:%s", account.getUsername(), account.getPassword()));
+					}
+					return null;
+				}
+			});
 		} catch (Exception e) {
 			e.printStackTrace();
-		} finally {
-			if (session != null)
-				session.close();
 		}
 	}
 
 	private static void doInitialization() {
-		HibernateUtil.createSessionFactoryBuilder()
+		SessionFactoryBuilder builder = HibernateUtil.createSessionFactoryBuilder()
 //			.setPropertyConfiguration("hibernate.cfg.xml")	// [Hibernate User]/hibernate.cfg.xml is used.
 //			.setPropertyConfiguration(new File("P:\\hibernate.cfg.xml"))
 			.setPropertyConfiguration(createURL())
 			.addConfiguration("/model/mapping.xml")
 //			.addConfiguration(new File("P:\\mapping.xml"))
-			.build();
+			;
+		builder.build();
+		print(builder.getStartupReport());
 	}
 
 	private static URL createURL() {
@@ -0,0 +1,186 @@
+package common;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+/**
+ * @definition
+ * Asynchronous facade of a controller, each call runs on a worker thread with its own Session, so independent queries of one request can overlap. <br/>
+ * The number of submitted but unfinished calls of a SessionFactory is limited by a Semaphore which is sized to its connection pool,
+ * and it is shared by every facade of the SessionFactory. {@link #submit(Call)} takes a permit before the call is queued, so the submitter waits
+ * when every connection is busy, instead of queuing calls without a bound, and a started call never waits for a connection of the pool.
+ * Do not submit from inside a call, it can wait for its own permit. <br/>
+ * Workers are daemon threads, as many as the permits, they are shared by every facade of the SessionFactory as well
+ * and they stop after they are idle for 60 seconds, so a facade is cheap to create per request. <br/>
+ * Results are detached because the Session is closed after the call, initialize lazy associations inside the call.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * AsyncController<AccountController> async = new AsyncController<AccountController>(sessionFactory, new ControllerFactory<AccountController>() {
+ * 	public AccountController create(Session session) { return new AccountController(session); }
+ * });
+ * Future<Account> account = async.submit(new Call<AccountController, Account>() {
+ * 	public Account call(AccountController controller) { return controller.getAccount("ken"); }
+ * });
+ * Future<List<Role>> roles = async.submit(new Call<AccountController, List<Role>>() {
+ * 	public List<Role> call(AccountController controller) { return controller.getRoles(); }
+ * });
+ * render(account.get(), roles.get());	// both queries run at the same time
+ * }
+ * </PRE>
+ */
+public class AsyncController<C extends BaseController> {
+
+	/** Map{@literal<SessionFactory, Semaphore>}, one Semaphore per SessionFactory */
+	private static final ConcurrentMap<SessionFactory, Semaphore> permits = new ConcurrentHashMap<SessionFactory, Semaphore>();
+	/** Map{@literal<SessionFactory, Executor>}, workers of every facade of the SessionFactory */
+	private static final ConcurrentMap<SessionFactory, ExecutorService> executors = new ConcurrentHashMap<SessionFactory, ExecutorService>();
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	/** Number of connections of the SessionFactory's pool, {@link PooledConnectionProvider} or hibernate.connection.pool_size */
+	public static int getPoolSize(SessionFactory sessionFactory){
+		final PooledConnectionProvider pool = PooledConnectionProvider.of(sessionFactory);
+		if (pool != null) return pool.getMetrics().getMaxSize();
+		return ConfigurationHelper.getInt(Environment.POOL_SIZE, ((SessionFactoryImplementor) sessionFactory).getProperties(), 20);
+	}
+	/** Drop the Semaphore and stop the workers of the SessionFactory after the submitted calls are done, call it when the SessionFactory is closed. */
+	public static void release(SessionFactory sessionFactory){
+		permits.remove(sessionFactory);
+		final ExecutorService executor = executors.remove(sessionFactory);
+		if (executor != null) executor.shutdown();
+	}
+	private static Semaphore permitsOf(SessionFactory sessionFactory){
+		Semaphore semaphore = permits.get(sessionFactory);
+		if (semaphore == null) {
+			Semaphore created = new Semaphore(getPoolSize(sessionFactory), true);
+			semaphore = permits.putIfAbsent(sessionFactory, created);
+			if (semaphore == null) semaphore = created;
+		}
+		return semaphore;
+	}
+	private static ExecutorService executorOf(SessionFactory sessionFactory){
+		ExecutorService executor = executors.get(sessionFactory);
+		if (executor == null) {
+			final int threads = getPoolSize(sessionFactory);
+			final ThreadPoolExecutor created = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "async-controller-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			created.allowCoreThreadTimeOut(true);
+			executor = executors.putIfAbsent(sessionFactory, created);
+			if (executor == null) executor = created;
+			else created.shutdown();				// no thread was started
+		}
+		return executor;
+	}
+
+
+
+	private final SessionFactory sessionFactory;
+	private final ControllerFactory<C> controllerFactory;
+	private final Semaphore semaphore;
+	private final ExecutorService executor;
+
+	/** The concurrency is the connection pool size of the SessionFactory, see {@link #getPoolSize(SessionFactory)} */
+	public AsyncController(SessionFactory sessionFactory, ControllerFactory<C> controllerFactory){
+		this.sessionFactory = sessionFactory;
+		this.controllerFactory = controllerFactory;
+		this.semaphore = permitsOf(sessionFactory);
+		this.executor = executorOf(sessionFactory);
+	}
+
+	/**
+	 * Run the call with a new Session and controller, the Session is closed when it returns or throws. <br/>
+	 * It waits for a permit if the connection pool size of calls are unfinished, the permit is released when the call is done.
+	 * @throws RejectedExecutionException if the SessionFactory was released, see {@link #release(SessionFactory)}
+	 */
+	public <R> Future<R> submit(final Call<C, R> call){
+		semaphore.acquireUninterruptibly();
+		try {
+			return executor.submit(new Callable<R>() {
+				@Override
+				public R call() throws Exception {
+					try {
+						final Session session = sessionFactory.openSession();
+						try {
+							return call.call(controllerFactory.create(session));
+						} finally {
+							session.close();
+						}
+					} finally {
+						semaphore.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			semaphore.release();		// the call was not queued
+			throw e;
+		}
+	}
+
+	/** Same as {@link #submit(Call)} in a transaction, it is committed when the call returns and rolled back when it throws, including Errors */
+	public <R> Future<R> submitInTransaction(final Call<C, R> call){
+		return submit(new Call<C, R>() {
+			@Override
+			public R call(C controller) throws Exception {
+				final Transaction tx = controller.getSession().beginTransaction();
+				boolean committed = false;
+				try {
+					final R result = call.call(controller);
+					tx.commit();
+					committed = true;
+					return result;
+				} finally {
+					if (!committed) rollback(tx);
+				}
+			}
+		});
+	}
+	/** Roll back without hiding the failure of the call */
+	private static void rollback(Transaction tx){
+		try {
+			tx.rollback();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Number of calls which can be submitted now without waiting, shared by every facade of the SessionFactory */
+	public int getAvailablePermits(){
+		return semaphore.availablePermits();
+	}
+
+
+
+//	INNER CLASS		\\
+	/** Create a controller for the Session of each call, such as new AccountController(session) */
+	public interface ControllerFactory<C extends BaseController>{
+		C create(Session session);
+	}
+
+	/** A unit of controller calls which runs on a worker thread */
+	public interface Call<C extends BaseController, R>{
+		R call(C controller) throws Exception;
+	}
+}
@@ -1,13 +1,45 @@
 package common;
 
-import java.lang.reflect.Field;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.hibernate.Cache;
 import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.FlushMode;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
 import org.hibernate.Session;
+import org.hibernate.action.internal.BulkOperationCleanupAction;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.engine.spi.ActionQueue;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.ProjectionList;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Queryable;
+import org.hibernate.transform.AliasToBeanConstructorResultTransformer;
+import org.hibernate.transform.ResultTransformer;
+import org.hibernate.transform.Transformers;
 
 /**
  * @definition
@@ -30,15 +62,111 @@ public class BaseController {
 	 * so Session can be reused or transaction can be made by the user-class.
 	 */
 	private final Session session;
+	
+	/** Whether the controller is read only, see {@link #BaseController(Session, boolean)} */
+	private final boolean readOnly;
 
 	public BaseController(Session session){
+		this(session, false);
+	}
+	/**
+	 * Create a controller for pure reads, such as read-heavy API or exporting. <br/>
+	 * The Session is set to default read only and {@link FlushMode#MANUAL}, 
+	 * therefore loaded entities do not keep snapshots for dirty checking and nothing is checked at flush time. <br/>
+	 * Note that the Session setting is changed, do not share the Session with writing controllers.
+	 * @param readOnly false is the same as {@link #BaseController(Session)}
+	 */
+	public BaseController(Session session, boolean readOnly){
 		this.session = session;
+		this.readOnly = readOnly;
+		if (readOnly) {
+			session.setDefaultReadOnly(true);
+			session.setFlushMode(FlushMode.MANUAL);
+		}
 	}
 
 	public Session getSession() {
 		return session;
 	}
 	
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+	/**
+	 * Throw if the controller is read only, call it before the writes of the user-class. 
+	 * The Session of a read only controller is never flushed, so the writes would be dropped silently.
+	 * @param operation such as "insert", it is a part of the message
+	 */
+	protected void checkWritable(String operation) {
+		if (readOnly)
+			throw new IllegalStateException("Cannot " + operation + " by a read only controller");
+	}
+	
+	/**
+	 * Session of a replica database for reads, null if reads are not routed. 
+	 * It is set by the user-class which also opens and closes it, see {@link #setReplicaSession(Session)}.
+	 */
+	private Session replicaSession;
+	
+	/**
+	 * Route reads to a replica database. The read helpers such as {@link #list(String)}, {@link #stream(String)} and {@link Searcher} 
+	 * use {@link #getReadSession()}, and writes always use {@link #getSession()}. <br/>
+	 * The replica Session is set to default read only and {@link FlushMode#MANUAL}, changes of the entities which are loaded by it are not written, 
+	 * save them by the primary Session after {@link #detachFromReplica(Object)}.
+	 * @param replicaSession such as HibernateUtil.getSessionFactory("replica").openSession(), null to stop routing
+	 */
+	public void setReplicaSession(Session replicaSession) {
+		this.replicaSession = replicaSession;
+		if (replicaSession != null) {
+			replicaSession.setDefaultReadOnly(true);
+			replicaSession.setFlushMode(FlushMode.MANUAL);
+		}
+	}
+	public Session getReplicaSession() {
+		return replicaSession;
+	}
+	
+	/**
+	 * Session for read only methods. <br/>
+	 * The replica Session is used if it was set and the primary Session has no active transaction, 
+	 * therefore reads inside a transaction, such as read-after-write, stay on the primary Session. 
+	 * Load entities inside the transaction if they are going to be modified.
+	 */
+	protected Session getReadSession() {
+		if (replicaSession == null || session.getTransaction().isActive())
+			return session;
+		return replicaSession;
+	}
+	
+	/**
+	 * Detach the entity and its collections from the replica Session, so that it can be saved by the primary Session, 
+	 * such as {@link Session#update(Object)} of an entity which was read by {@link #getReadSession()}. 
+	 * Otherwise Hibernate rejects a collection which is associated with two open Sessions. <br/>
+	 * Note that the replica may lag behind the primary, the saved state overwrites the primary row.
+	 */
+	protected void detachFromReplica(Object entity) {
+		if (replicaSession != null && replicaSession.contains(entity))
+			replicaSession.evict(entity);
+	}
+	
+	/** Default JDBC fetch size of {@link #stream(Criteria)} and {@link #forEach(Criteria, ResultHandler)} */
+	public static final int DEFAULT_FETCH_SIZE = 100;
+	/** 
+	 * MySQL Connector/J reads the whole ResultSet into memory unless fetch size is Integer.MIN_VALUE, 
+	 * set it by {@link #setFetchSize(int)} to stream rows one by one. Note that no other statement can be executed on the connection until the stream is closed.
+	 */
+	public static final int MYSQL_STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+	
+	/** JDBC fetch size for streaming results, see {@link #DEFAULT_FETCH_SIZE} */
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+	
 	
 	
 	
@@ -58,6 +186,11 @@ public class BaseController {
 	 * 						.exclude("password")	// do not search for password property
 	 * 						.createCriteria(Account.class, accountCriteria);
 	 * // you can do additional filtering by hibernate Criteria
+	 * 
+	 * List<User> users = createSearcher(SearchMode.BY_NON_NULL_FIELDS)
+	 * 						.startsWith("id.location", "tai")	// site = ? and location LIKE 'tai%', see SearchOperator
+	 * 						.between("money", 100L, null)		// money >= 100
+	 * 						.search(User.class, userCriteria);
 	 * }
 	 * </PRE>
 	 *
@@ -65,7 +198,9 @@ public class BaseController {
 	protected class Searcher{
 		private SearchMode searchMode;
 		/** Collection of exclusion properties' name */
-		private List<String> exclusion = new ArrayList<String>();
+		private Set<String> exclusion = new HashSet<String>();
+		/** Map{@literal<Property name, SearchOperator>}, they replace the restrictions of the Search Mode */
+		private Map<String, SearchOperator> operators = new LinkedHashMap<String, SearchOperator>();
 
 		public Searcher(SearchMode searchMode){
 			this.searchMode = searchMode;
@@ -79,69 +214,210 @@ public class BaseController {
 		 * @return hibernate Criteria that you can add additional Restrictions
 		 */
 		public <T> Criteria createCriteria(Class<T> searchEntity, T entityCriteria){
-			final Criteria criteria = getSession().createCriteria(searchEntity);
-			if (entityCriteria == null) return criteria;	// no need to do Restrictions for null criteria
+			final Criteria criteria = getReadSession().createCriteria(searchEntity);
+			if (entityCriteria == null && operators.isEmpty()) return criteria;	// no need to do Restrictions for null criteria
 
-			final EntityMetadata entity = new EntityMetadata(entityCriteria, getSession().getSessionFactory());
+			// compiled once per entity class and exclusion, see SearchPlan
+			final SearchPlan plan = SearchPlan.of(getReadSession().getSessionFactory(), 
+					entityCriteria == null ? searchEntity : entityCriteria.getClass()).exclude(exclusion);
+			for (Map.Entry<String, Object> restriction : createRestrictions(plan, entityCriteria).entrySet())
+				criteria.add(toCriterion(restriction.getKey(), restriction.getValue()));
+			
+			return criteria;
+		}
+		
+		/**
+		 * Same as {@link #createCriteria(Class, Object)} as an HQL Query of the canonical shape of the restrictions, see {@link QueryShapeCache}. <br/>
+		 * Searches of the same properties and operators execute the same SQL, so the prepared statement is reused by the statement caches.
+		 * @param entityCriteria the criteria for generating Restrictions, null is allowed (select all)
+		 * @return Query that you can set additional options, such as max results
+		 */
+		public <T> Query createQuery(Class<T> searchEntity, T entityCriteria){
+			final Session readSession = getReadSession();
+			final SearchPlan plan = SearchPlan.of(readSession.getSessionFactory(), 
+					entityCriteria == null ? searchEntity : entityCriteria.getClass()).exclude(exclusion);
+			return QueryShapeCache.of(readSession.getSessionFactory()).createQuery(readSession, searchEntity, createRestrictions(plan, entityCriteria));
+		}
+		
+		/**
+		 * Same as list(createQuery(searchEntity, entityCriteria)), but the result is served from {@link SearchResultCache} if it is enabled, 
+		 * see {@link HibernateUtil.SessionFactoryBuilder#enableSearchResultCache(int)}. <br/>
+		 * Searches inside a transaction are served from the cache too, unless the Session wrote the entity's tables in the transaction,
+		 * see {@link SearchResultCache#isWrittenBy(Session, SearchResultCache.Key)}, so uncommitted data is never cached. 
+		 * The cache of the primary SessionFactory is used even if the search is routed to a replica, because writes are detected on the primary.
+		 * @param entityCriteria the criteria for generating Restrictions, null is allowed (select all)
+		 */
+		public <T> List<T> search(Class<T> searchEntity, T entityCriteria){
+			final Session readSession = getReadSession();
+			final SearchResultCache cache = SearchResultCache.of(getSession().getSessionFactory());
+			if (cache == null)
+				return list(createQuery(searchEntity, entityCriteria));
+			
+			final SearchPlan plan = SearchPlan.of(readSession.getSessionFactory(), searchEntity).exclude(exclusion);
+			final Map<String, Object> restrictions = createRestrictions(plan, entityCriteria);
+			final SearchResultCache.Key key = cache.createKey(searchEntity, searchMode, plan.getExclusion(), restrictions);
+			if (cache.isWrittenBy(readSession, key))
+				return list(QueryShapeCache.of(readSession.getSessionFactory()).createQuery(readSession, searchEntity, restrictions));
+			
+			final List<Serializable> identifiers = cache.get(key);
+			if (identifiers != null) {
+				final List<T> results = load(readSession, searchEntity, plan, identifiers);
+				if (results != null) return results;
+				cache.remove(key);		// some results do not exist anymore, such as deleted by bulk update
+			}
+			
+			final long[] generations = cache.getGenerations(key);
+			final List<T> results = list(QueryShapeCache.of(readSession.getSessionFactory()).createQuery(readSession, searchEntity, restrictions));
+			
+			if (results.size() <= cache.getMaxResultSize()) {
+				final List<Serializable> resultIdentifiers = new ArrayList<Serializable>(results.size());
+				for (T result : results)
+					resultIdentifiers.add(plan.getIdentifier(result));
+				cache.put(key, generations, resultIdentifiers);
+			}
+			return results;
+		}
+		
+		/**
+		 * Same as {@link #createCriteria(Class, Object)}, but only the properties are selected and each row is mapped to a result object,
+		 * so other columns are not read and nothing is added to the Session. <br/>
+		 * The result class is constructed by a public constructor which has as many parameters as the properties, in the same order, 
+		 * if there is exactly one such constructor. Otherwise it is constructed by the no-arg constructor, 
+		 * and the properties are set by the setters of their last path segment, such as setSite for 'id.site'. <br/>
+		 * Results are not cached by {@link SearchResultCache}.
+		 * @param resultClass such as a DTO of (site, name, money) of User
+		 * @param propertyPaths such as 'username' or 'id.site', at least one, their last path segments must be different
+		 * @throws IllegalArgumentException if two properties have the same last path segment, such as 'id.name' and 'name'
+		 * @codeSample
+		 * <PRE>
+		 * {@code
+		 * List<UserBalance> balances = createSearcher(SearchMode.BY_NON_NULL_FIELDS)
+		 * 						.project(UserBalance.class, User.class, userCriteria, "id.site", "id.name", "money");
+		 * }
+		 * </PRE>
+		 */
+		public <T, R> List<R> project(Class<R> resultClass, Class<T> searchEntity, T entityCriteria, String... propertyPaths){
+			if (propertyPaths.length == 0)
+				throw new IllegalArgumentException("no property to project");
+			final ProjectionList projection = Projections.projectionList();
+			final Map<String, String> aliases = new HashMap<String, String>();		// Map<Alias, Property path>
+			for (String propertyPath : propertyPaths) {
+				final String alias = propertyPath.substring(propertyPath.lastIndexOf('.') + 1);
+				final String existing = aliases.put(alias, propertyPath);
+				if (existing != null)
+					throw new IllegalArgumentException("'" + existing + "' and '" + propertyPath + "' are both projected as '" + alias + "', project one of them");
+				projection.add(Projections.property(propertyPath), alias);
+			}
+			return list(createCriteria(searchEntity, entityCriteria)
+					.setProjection(projection)
+					.setResultTransformer(createResultTransformer(resultClass, propertyPaths.length)));
+		}
+		/**
+		 * Same as {@link #project(Class, Class, Object, String...)} with one property, the values are returned as they are.
+		 * @codeSample
+		 * List<String> usernames = createSearcher(SearchMode.BY_NON_NULL_FIELDS).projectValues(String.class, Account.class, accountCriteria, "username");
+		 */
+		public <T, V> List<V> projectValues(Class<V> valueClass, Class<T> searchEntity, T entityCriteria, String propertyPath){
+			return list(createCriteria(searchEntity, entityCriteria).setProjection(Projections.property(propertyPath)));
+		}
+		
+		/** Constructor of the result class if exactly one public constructor has the number of parameters, otherwise setters, see {@link #project(Class, Class, Object, String...)} */
+		private ResultTransformer createResultTransformer(Class<?> resultClass, int size){
+			Constructor<?> constructor = null;
+			for (Constructor<?> candidate : resultClass.getConstructors()) {
+				if (candidate.getParameterTypes().length != size) continue;
+				if (constructor != null) return Transformers.aliasToBean(resultClass);		// ambiguous
+				constructor = candidate;
+			}
+			return constructor != null ? new AliasToBeanConstructorResultTransformer(constructor) : Transformers.aliasToBean(resultClass);
+		}
+		
+		/**
+		 * Load cached results by identifiers in the cached order. Entities of the Session or the second-level cache are loaded one by one, 
+		 * others are loaded by one IN query.
+		 * @return null if any of the identifiers does not exist
+		 */
+		private <T> List<T> load(Session session, Class<T> searchEntity, SearchPlan plan, List<Serializable> identifiers){
+			final SessionImplementor sessionImplementor = (SessionImplementor) session;
+			final EntityPersister persister = sessionImplementor.getFactory().getEntityPersister(searchEntity.getName());
+			final Cache secondLevelCache = session.getSessionFactory().getCache();
+			
+			final Map<Serializable, T> loaded = new HashMap<Serializable, T>();
+			final List<Serializable> missing = new ArrayList<Serializable>();
+			for (Serializable identifier : identifiers) {
+				if (sessionImplementor.getPersistenceContext().containsEntity(sessionImplementor.generateEntityKey(identifier, persister)) || 
+					secondLevelCache.containsEntity(searchEntity, identifier))
+					loaded.put(identifier, searchEntity.cast(session.get(searchEntity, identifier)));
+				else
+					missing.add(identifier);
+			}
+			if (!missing.isEmpty()) {
+				final List<T> results = list(session.createCriteria(searchEntity).add(Restrictions.in(plan.getIdentifierPropertyName(), missing)));
+				for (T result : results)
+					loaded.put(plan.getIdentifier(result), result);
+			}
+			
+			final List<T> results = new ArrayList<T>(identifiers.size());
+			for (Serializable identifier : identifiers) {
+				final T result = loaded.get(identifier);
+				if (result == null) return null;
+				results.add(result);
+			}
+			return results;
+		}
+		
+		/**
+		 * Restrictions based on the Search Mode, see {@link SearchMode}, and the operators. It is the fingerprint of {@link #search(Class, Object)} as well.
+		 * @param entityCriteria null for the operators only
+		 * @return Map{@literal<Restriction name, value or SearchOperator>} in the plan order, such as {username=ken} or {id.site=tw, id.name=PREFIX [k]}
+		 */
+		private Map<String, Object> createRestrictions(SearchPlan plan, Object entityCriteria){
+			final Map<String, Object> restrictions = new LinkedHashMap<String, Object>();
+			if (entityCriteria == null) {
+				restrictions.putAll(operators);
+				return restrictions;
+			}
 			
-			// handle criteria for properties
 			switch (searchMode) {
 			case BY_NON_NULL_FIELDS:
-				for (EntityMetadata.Property property : entity.getProperties()) {
-					String name = property.getName();
-					Object value = property.getValue();
+			case BY_PREFIX_OF_STRING_FIELDS:
+				// handle criteria for properties, association and excluded properties are not in the plan
+				final Object[] values = plan.getPropertyValues(entityCriteria);
+				for (int i = 0; i < plan.size(); i++) {
+					Object value = plan.getPropertyValue(values, i);
 					
 					// handle primitive default value, set null to exclude from criteria
-					if (!property.isNullability()) {
+					if (!plan.isNullability(i)) {
 						value = isPrimitiveDefaultValue(value) ? null : value;
 						if (value instanceof Boolean) value = null;					// exclude boolean fields
 					}
 					
-					if (value != null &&											// include fields which is not null
-						!property.getType().isAssociationType() &&					// exclude fields which generate by foreign key joining
-						!isExcluded(name)											// exclude specified fields
-						) {
-						criteria.add(Restrictions.eq(name, value));
-					}
+					if (value != null)												// include fields which is not null
+						restrictions.put(plan.getPropertyName(i), restrictionValue(value));
 				}
 				
-				break;
-			} 
-			
-			// handle criteria for primary key(s)
-			switch (searchMode) {
-			case BY_NON_NULL_FIELDS:
+				// handle criteria for primary key(s)
 				// info: every identifier is null when entity is created.
-				if (entity.getIdentifier().getValue() != null) {	// such as user.getUsername()!=null, or account.getId()!=null <- getId() is composite primary keys 
-					if (entity.hasSinglePrimaryKey()) {
-						criteria.add(Restrictions.eq(entity.getIdentifier().getPropertyName(), entity.getIdentifier().getValue()));
-					} else if (entity.hasCompositePrimaryKey()) {
-						// use reflection to access id properties
-						for (Field field : entity.getIdentifier().getValue().getClass().getDeclaredFields()) {
-							String name = entity.getIdentifier().getPropertyName() + "." + field.getName();
-							Object value = null;
-							try {
-								field.setAccessible(true);
-								value = field.get(entity.getIdentifier().getValue());
-							} catch (IllegalArgumentException e) {
-								e.printStackTrace();
-							} catch (IllegalAccessException e) {
-								e.printStackTrace();
-							}
+				final Serializable identifier = plan.getIdentifier(entityCriteria);
+				if (identifier != null) {	// such as user.getUsername()!=null, or account.getId()!=null <- getId() is composite primary keys 
+					switch (plan.getIdentifierKind()) {
+					case SINGLE:
+						restrictions.put(plan.getIdentifierPropertyName(), restrictionValue(identifier));
+						break;
+					case COMPOSITE:
+						// composite primary keys are read by the component getters, excluded properties are not in the plan
+						for (int i = 0; i < plan.identifierComponentSize(); i++) {
+							Object value = plan.getIdentifierComponentValue(identifier, i);
 
 							// handle primitive default value, set null to exclude from criteria
-							if (true) {
-								value = isPrimitiveDefaultValue(value) ? null : value;
-								if (value instanceof Boolean) value = null;			// exclude boolean fields
-							}
+							value = isPrimitiveDefaultValue(value) ? null : value;
+							if (value instanceof Boolean) value = null;				// exclude boolean fields
 							
-							if (value != null &&									// include fields which is not null
-								!isExcluded(name)									// exclude specified fields
-								){ 
-								criteria.add(Restrictions.eq(name, value));
-							}
+							if (value != null)										// include fields which is not null
+								restrictions.put(plan.getIdentifierComponentName(i), restrictionValue(value));
 						}
-					} else {
+						break;
+					default:
 						throw new RuntimeException("Unsupport criteria identifier type");
 					}
 				}
@@ -149,7 +425,33 @@ public class BaseController {
 				break;
 			}
 			
-			return criteria;
+			// operators replace the restrictions of the same properties
+			restrictions.putAll(operators);
+			return restrictions;
+		}
+		
+		/** Value of a restriction of the Search Mode, a String is a prefix of {@link SearchMode#BY_PREFIX_OF_STRING_FIELDS} */
+		private Object restrictionValue(Object value){
+			if (searchMode == SearchMode.BY_PREFIX_OF_STRING_FIELDS && value instanceof String)
+				return SearchOperator.startsWith((String) value);
+			return value;
+		}
+		
+		/** Equality of a value, or the restriction of a {@link SearchOperator} */
+		private Criterion toCriterion(String propertyName, Object value){
+			if (value instanceof SearchOperator)
+				return ((SearchOperator) value).toCriterion(propertyName);
+			return Restrictions.eq(propertyName, value);
+		}
+		
+		/**
+		 * Create a cursor for keyset (seek) pagination, see {@link PageCursor}.
+		 * @param searchEntity the entity you want to search
+		 * @param entityCriteria the criteria for generating Restrictions, null is allowed (select all)
+		 * @param pageSize maximum number of results of each page
+		 */
+		public <T> PageCursor<T> createPageCursor(Class<T> searchEntity, T entityCriteria, int pageSize){
+			return new PageCursor<T>(this, searchEntity, entityCriteria, pageSize);
 		}
 		
 		/** Check whether the property has added by {@link #exclude(String)} */
@@ -166,6 +468,139 @@ public class BaseController {
 			exclusion.add(propertyName); return this;
 		}
 		
+		/**
+		 * Restrict a property by an operator instead of equality, it replaces the restriction of the Search Mode and the previous operator of the property.
+		 * @param propertyName such as 'username' for single primary key, 'id.location' for composite primary keys
+		 */
+		public Searcher where(String propertyName, SearchOperator operator){
+			operators.put(propertyName, operator); return this;
+		}
+		/** Left-anchored prefix, such as username LIKE 'ke%', see {@link SearchOperator#startsWith(String)} */
+		public Searcher startsWith(String propertyName, String prefix){
+			return where(propertyName, SearchOperator.startsWith(prefix));
+		}
+		/** Inclusive range, a null bound is open, see {@link SearchOperator#between(Object, Object)} */
+		public Searcher between(String propertyName, Object lower, Object upper){
+			return where(propertyName, SearchOperator.between(lower, upper));
+		}
+		/** IN-list, an empty collection matches nothing, see {@link SearchOperator#in(Collection)} */
+		public Searcher in(String propertyName, Collection<?> values){
+			return where(propertyName, SearchOperator.in(values));
+		}
+		
+	}
+	
+	/**
+	 * Keyset pagination of {@link Searcher} results. Results are ordered by the identifier, 
+	 * and the next page continues with 'identifier > last seen identifier' instead of skipping rows by offset, 
+	 * therefore a deep page costs the same as the first page when the primary key index is used. <br/>
+	 * Composite primary keys are compared in the key order of the primary key index, such as (site, location, name) of {@link model.UserId}, 
+	 * which is configured by {@link SearchPlan#KEY_ORDER}, see {@link SearchPlan}.
+	 * @codeSample
+	 * <PRE>
+	 * {@code
+	 * PageCursor<Account> cursor = createSearcher(SearchMode.BY_NON_NULL_FIELDS).createPageCursor(Account.class, accountCriteria, 100);
+	 * while (cursor.hasNext()) {
+	 * 	for (Account account : cursor.next())
+	 * 		doSomething(account);
+	 * 	getSession().clear();	// optional, release the page from the Session
+	 * }
+	 * }
+	 * </PRE>
+	 */
+	public class PageCursor<T>{
+		private final Searcher searcher;
+		private final Class<T> searchEntity;
+		private final T entityCriteria;
+		private final int pageSize;
+		/** Plan without exclusion, all identifier properties are used for ordering */
+		private final SearchPlan plan;
+		/** Identifier of the last result of previous page, null before the first page */
+		private Serializable lastSeen;
+		private boolean last;
+		
+		private PageCursor(Searcher searcher, Class<T> searchEntity, T entityCriteria, int pageSize){
+			if (pageSize <= 0)
+				throw new IllegalArgumentException("pageSize must be positive");
+			this.searcher = searcher;
+			this.searchEntity = searchEntity;
+			this.entityCriteria = entityCriteria;
+			this.pageSize = pageSize;
+			this.plan = SearchPlan.of(getReadSession().getSessionFactory(), searchEntity);
+			if (plan.getIdentifierKind() == SearchPlan.IdentifierKind.UNSUPPORTED)
+				throw new RuntimeException("Unsupport pagination identifier type");
+		}
+		
+		/** Whether there may be more results, it is false after a page which is smaller than the page size */
+		public boolean hasNext() {
+			return !last;
+		}
+		
+		/** Query the next page, an empty list is returned when there are no more results. */
+		public List<T> next() {
+			if (last) return new ArrayList<T>(0);
+			
+			final Criteria criteria = searcher.createCriteria(searchEntity, entityCriteria);
+			if (lastSeen != null) addSeekRestriction(criteria);
+			addIdentifierOrder(criteria);
+			criteria.setMaxResults(pageSize);
+			
+			final List<T> page = list(criteria);
+			if (page.size() < pageSize) last = true;
+			if (!page.isEmpty()) lastSeen = plan.getIdentifier(page.get(page.size() - 1));
+			return page;
+		}
+		
+		/** Identifier of the last returned result, store it to continue by {@link #seek(Serializable)} later */
+		public Serializable getLastSeen() {
+			return lastSeen;
+		}
+		/** Continue after the identifier, null to restart from the first page */
+		public PageCursor<T> seek(Serializable lastSeen) {
+			this.lastSeen = lastSeen;
+			this.last = false;
+			return this;
+		}
+		
+		private void addIdentifierOrder(Criteria criteria) {
+			if (plan.getIdentifierKind() == SearchPlan.IdentifierKind.SINGLE) {
+				criteria.addOrder(Order.asc(plan.getIdentifierPropertyName()));
+			} else {
+				for (int i = 0; i < plan.identifierComponentSize(); i++)
+					criteria.addOrder(Order.asc(plan.getIdentifierComponentName(i)));
+			}
+		}
+		
+		private void addSeekRestriction(Criteria criteria) {
+			if (plan.getIdentifierKind() == SearchPlan.IdentifierKind.SINGLE) {
+				criteria.add(Restrictions.gt(plan.getIdentifierPropertyName(), lastSeen));
+				return;
+			}
+			
+			// row-value comparison (c1, c2, c3) > (v1, v2, v3), expanded as 
+			// c1 > v1 or (c1 = v1 and (c2 > v2 or (c2 = v2 and c3 > v3)))
+			final int size = plan.identifierComponentSize();
+			Criterion seek = Restrictions.gt(plan.getIdentifierComponentName(size - 1), plan.getIdentifierComponentValue(lastSeen, size - 1));
+			for (int i = size - 2; i >= 0; i--) {
+				String name = plan.getIdentifierComponentName(i);
+				Object value = plan.getIdentifierComponentValue(lastSeen, i);
+				seek = Restrictions.or(Restrictions.gt(name, value), Restrictions.and(Restrictions.eq(name, value), seek));
+			}
+			// c1 >= v1 does not change the result, every row after the last seen one has c1 >= v1. 
+			// Optimizers do not derive an index range from the OR expansion above, 
+			// with this bound on the leading primary key column the scan starts at the last seen row instead of the first row of the table.
+			criteria.add(Restrictions.ge(plan.getIdentifierComponentName(0), plan.getIdentifierComponentValue(lastSeen, 0)));
+			criteria.add(seek);
+		}
+	}
+	
+	/**
+	 * Make the cached searches of the entity's tables stale, see {@link SearchResultCache}. <br/>
+	 * Writes are detected at flush time, call it when the Session is not flushed immediately or the data is changed by bulk update.
+	 */
+	protected void invalidateSearches(Class<?> entityClass){
+		final SearchResultCache cache = SearchResultCache.of(getSession().getSessionFactory());
+		if (cache != null) cache.invalidate(entityClass);
 	}
 	
 	protected enum SearchMode{
@@ -174,7 +609,12 @@ public class BaseController {
 		 * exclude primitive type with default value <br/>
 		 * exclude boolean type <br/>
 		 */
-		BY_NON_NULL_FIELDS
+		BY_NON_NULL_FIELDS,
+		/**
+		 * Same as {@link #BY_NON_NULL_FIELDS}, but String fields are matched by prefix, such as username LIKE 'ke%'.<br/>
+		 * The pattern is left-anchored and case-sensitive, so a B-tree index of the column can be used, see {@link SearchOperator#startsWith(String)} <br/>
+		 */
+		BY_PREFIX_OF_STRING_FIELDS
 	}
 	
 	/**
@@ -208,10 +648,10 @@ public class BaseController {
 //region ignore_type_safety
 	
 	/**
-	 * List all records for a entity, the Session {@link #getSession()} is used.
+	 * List all records for a entity, the Session {@link #getReadSession()} is used.
 	 */
 	protected <T> List<T> list(Class<T> listEntity) {
-		return list(getSession().createCriteria(listEntity));
+		return list(getReadSession().createCriteria(listEntity));
 	}
 	/**
 	 * Call this method instead of {@link Criteria #list()} to ignore type safety warning
@@ -224,12 +664,12 @@ public class BaseController {
 	}
 	
 	/**
-	 * Same as {@link #list(Query)} with a basic HQL statement, the Session {@link #getSession()} is used.
+	 * Same as {@link #list(Query)} with a basic HQL statement, the Session {@link #getReadSession()} is used.
 	 * @codeSample
 	 * List<Account> account = list("from Account");
 	 */
 	protected <T> List<T> list(String listQuery) {
-		return list(getSession().createQuery(listQuery));
+		return list(getReadSession().createQuery(listQuery));
 	}
 	/**
 	 * Call this method instead of {@link Query #list()} to ignore type safety warning
@@ -241,5 +681,345 @@ public class BaseController {
 		return listQuery.list();
 	}
 //endregion
+	
+//region fetch
+	
+	/**
+	 * Fetch associations of the results by outer joins in the same query, instead of one query per lazy association when they are accessed. <br/>
+	 * Root entities are distinct, the joined rows of a collection are merged into one result. 
+	 * Do not use it with {@link Criteria#setMaxResults(int)}, the limit is applied to joined rows instead of root entities.
+	 * @param associationPaths such as 'accountroles' and 'accountroles.role'
+	 * @codeSample
+	 * List<Account> accounts = list(fetchJoin(getSession().createCriteria(Account.class), "accountroles", "accountroles.role"));
+	 */
+	protected Criteria fetchJoin(Criteria criteria, String... associationPaths) {
+		for (String associationPath : associationPaths)
+			criteria.setFetchMode(associationPath, FetchMode.JOIN);
+		return criteria.setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY);
+	}
+	
+	/**
+	 * Same as {@link Session#get(Class, Serializable)} by {@link #getReadSession()}, but associations are fetched by the fetch profile, 
+	 * such as {@literal @FetchProfile} of the entity class. The profile is enabled during the load only. <br/>
+	 * Note that nothing is loaded if the entity is already in the Session.
+	 * @param fetchProfile such as {@link model.Account#PROFILE_WITH_ROLES}
+	 */
+	protected <T> T get(Class<T> entity, Serializable id, String fetchProfile) {
+		final Session session = getReadSession();
+		final boolean enabled = session.isFetchProfileEnabled(fetchProfile);
+		if (!enabled) session.enableFetchProfile(fetchProfile);
+		try {
+			return entity.cast(session.get(entity, id));
+		} finally {
+			if (!enabled) session.disableFetchProfile(fetchProfile);
+		}
+	}
+
+	/** Identifiers per query of {@link #getAll(Class, Collection)}, a power of 2 */
+	public static final int DEFAULT_GET_ALL_CHUNK_SIZE = 128;
+
+	/** Same as {@link #getAll(Class, Collection, int)} by {@link #DEFAULT_GET_ALL_CHUNK_SIZE} identifiers per query */
+	protected <T> List<T> getAll(Class<T> entity, Collection<? extends Serializable> ids) {
+		return getAll(entity, ids, DEFAULT_GET_ALL_CHUNK_SIZE);
+	}
+	/**
+	 * Same as {@link Session#get(Class, Serializable)} of every identifier by {@link #getReadSession()}, but the misses are loaded by a few queries. <br/>
+	 * The entities of the Session and the second level cache are used first,
+	 * the other identifiers are loaded by 'id in (...)' queries of chunkSize identifiers.
+	 * Composite identifiers such as {@link model.UserId} are written in the mapped component order as (location, name, site) in ((?, ?, ?), ...)
+	 * if the dialect supports row values in IN-lists, otherwise as (location = ? and name = ? and site = ?) or ... <br/>
+	 * The chunks are padded to the next power of 2, at most chunkSize, by repeating the last identifier, so the SQL of the chunks is reused.
+	 * @return entities in the order of the identifiers, null if the entity does not exist
+	 */
+	protected <T> List<T> getAll(Class<T> entity, Collection<? extends Serializable> ids, int chunkSize) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("chunkSize must be positive");
+
+		final Session session = getReadSession();
+		final SessionImplementor implementor = (SessionImplementor) session;
+		final EntityPersister persister = implementor.getFactory().getEntityPersister(entity.getName());
+		final String identifierName = persister.getIdentifierPropertyName();
+		if (identifierName == null)
+			throw new RuntimeException(entity.getName() + " has no identifier property, such as a composite identifier without @EmbeddedId");
+		final boolean cached = persister.hasCache() && session.getCacheMode().isGetEnabled();
+		final Cache cache = session.getSessionFactory().getCache();
+
+		final List<Serializable> misses = new ArrayList<Serializable>();
+		final Set<EntityKey> missKeys = new HashSet<EntityKey>();
+		for (Serializable id : ids) {
+			if (id == null) continue;
+			final EntityKey key = implementor.generateEntityKey(id, persister);
+			if (implementor.getPersistenceContext().getEntity(key) != null || missKeys.contains(key)) continue;
+			if (cached && cache.containsEntity(entity, id)) {
+				session.get(entity, id);		// assembled from the second level cache, no query
+				continue;
+			}
+			missKeys.add(key);
+			misses.add(id);
+		}
+
+		for (int from = 0; from < misses.size(); from += chunkSize) {
+			final List<Serializable> chunk = new ArrayList<Serializable>(misses.subList(from, Math.min(from + chunkSize, misses.size())));
+			final int padded = Math.min(QueryShapeCache.paddedSize(chunk.size()), chunkSize);
+			while (chunk.size() < padded)
+				chunk.add(chunk.get(chunk.size() - 1));
+			session.createCriteria(entity).add(Restrictions.in(identifierName, chunk)).list();
+		}
+
+		final List<T> entities = new ArrayList<T>(ids.size());
+		for (Serializable id : ids) {
+			final Object loaded = id == null ? null : implementor.getPersistenceContext().getEntity(implementor.generateEntityKey(id, persister));
+			entities.add(entity.cast(loaded));
+		}
+		return entities;
+	}
+//endregion
+	
+//region batch
+	
+	/** Flush interval of {@link #insertAll(Iterable)} when hibernate.jdbc.batch_size is not set */
+	public static final int DEFAULT_BATCH_SIZE = 50;
+	
+	/**
+	 * Same as {@link #insertAll(Iterable, int)}, the interval is hibernate.jdbc.batch_size of the SessionFactory, 
+	 * see {@link HibernateUtil.SessionFactoryBuilder#setJdbcBatchSize(int)}.
+	 */
+	protected <T> BatchResult insertAll(Iterable<T> entities) {
+		final int batchSize = ((SessionFactoryImplementor) getSession().getSessionFactory()).getSettings().getJdbcBatchSize();
+		return insertAll(entities, batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE);
+	}
+	/**
+	 * Save entities and flush then clear the Session every flushInterval entities, 
+	 * therefore the inserts are sent as JDBC batches and the Session does not grow during imports. <br/>
+	 * Note that {@link Session#clear()} detaches every entity of the Session, not only the inserted ones.
+	 * The transaction is not committed, it is done by the user-class.
+	 * @param flushInterval should be the same as hibernate.jdbc.batch_size
+	 */
+	protected <T> BatchResult insertAll(Iterable<T> entities, int flushInterval) {
+		if (flushInterval <= 0)
+			throw new IllegalArgumentException("flushInterval must be positive");
+		checkWritable("insert");
+		
+		final long start = System.nanoTime();
+		int count = 0, flushes = 0;
+		for (T entity : entities) {
+			getSession().save(entity);
+			if (++count % flushInterval == 0) {
+				getSession().flush();
+				getSession().clear();
+				flushes++;
+			}
+		}
+		if (count % flushInterval != 0) {
+			getSession().flush();
+			getSession().clear();
+			flushes++;
+		}
+		return new BatchResult(count, flushes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Same as {@link #upsertAll(Class, Iterable, int)}, the rows per statement are hibernate.jdbc.batch_size of the SessionFactory.
+	 */
+	protected <T> BatchResult upsertAll(Class<T> entityClass, Iterable<T> entities) {
+		final int batchSize = ((SessionFactoryImplementor) getSession().getSessionFactory()).getSettings().getJdbcBatchSize();
+		return upsertAll(entityClass, entities, batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE);
+	}
+	/**
+	 * Insert the entities or update the existing rows of their identifiers, without loading them first. <br/>
+	 * MySQL and H2 - multi-row native upsert, see {@link UpsertStatement}, one statement per rowsPerStatement entities. <br/>
+	 * Other dialects - {@link Session#merge(Object)} and flush then clear the Session every rowsPerStatement entities,
+	 * merge selects the detached entities which are not in the Session, so it is not faster than get then update. <br/>
+	 * The native upsert bypasses the Session, the entities of the identifiers are evicted from the Session,
+	 * the second level cache region, the cached queries of the table and the cached searches are invalidated now and again after the transaction is completed,
+	 * so that rows which other Sessions read before the commit are not cached. It does not cascade to associations.
+	 * The transaction is not committed, it is done by the user-class.
+	 * @param entities with assigned identifiers, such as {@link model.User}
+	 * @return count of entities, flushes is the number of statements or flushes
+	 */
+	protected <T> BatchResult upsertAll(Class<T> entityClass, Iterable<T> entities, final int rowsPerStatement) {
+		if (rowsPerStatement <= 0)
+			throw new IllegalArgumentException("rowsPerStatement must be positive");
+		checkWritable("upsert");
+
+		final long start = System.nanoTime();
+		final SessionImplementor session = (SessionImplementor) getSession();
+		final AbstractEntityPersister persister = (AbstractEntityPersister) session.getFactory().getEntityPersister(entityClass.getName());
+		final UpsertStatement upsert = UpsertStatement.of(session.getFactory().getDialect(), persister);
+		if (upsert == null) {
+			int count = 0, flushes = 0;
+			for (T entity : entities) {
+				getSession().merge(entity);
+				if (++count % rowsPerStatement == 0) {
+					getSession().flush();
+					getSession().clear();
+					flushes++;
+				}
+			}
+			if (count % rowsPerStatement != 0) {
+				getSession().flush();
+				getSession().clear();
+				flushes++;
+			}
+			return new BatchResult(count, flushes, System.nanoTime() - start);
+		}
+
+		getSession().flush();		// pending changes of the entities are written before they are overwritten
+		// same as Hibernate's native updates, the region is evicted now and after the transaction is completed
+		final ActionQueue actionQueue = ((EventSource) getSession()).getActionQueue();
+		actionQueue.addAction(new BulkOperationCleanupAction(session, (Queryable) persister));
+		invalidateSearches(entityClass);
+		final Class<T> upsertedClass = entityClass;
+		actionQueue.registerProcess(new AfterTransactionCompletionProcess() {
+			@Override
+			public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+				final SearchResultCache cache = SearchResultCache.of(session.getFactory());
+				if (cache != null) cache.invalidate(upsertedClass);
+			}
+		});
+
+		final Iterable<T> rows = entities;
+		final int[] counts = new int[2];	// {entities, statements}
+		getSession().doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				final List<T> chunk = new ArrayList<T>(rowsPerStatement);
+				PreparedStatement statement = null;		// of full chunks, it is reused
+				try {
+					for (T entity : rows) {
+						chunk.add(entity);
+						if (chunk.size() < rowsPerStatement) continue;
+						if (statement == null) statement = connection.prepareStatement(upsert.getSql(rowsPerStatement));
+						execute(statement, chunk);
+					}
+					if (!chunk.isEmpty()) {
+						final PreparedStatement last = connection.prepareStatement(upsert.getSql(chunk.size()));
+						try {
+							execute(last, chunk);
+						} finally {
+							last.close();
+						}
+					}
+				} finally {
+					if (statement != null) statement.close();
+				}
+			}
+			private void execute(PreparedStatement statement, List<T> chunk) throws SQLException {
+				upsert.bind(statement, chunk, session);
+				statement.executeUpdate();
+				for (T entity : chunk) {
+					final Object entry = session.getPersistenceContext().getEntity(session.generateEntityKey(persister.getIdentifier(entity, session), persister));
+					if (entry != null) getSession().evict(entry);
+				}
+				counts[0] += chunk.size();
+				counts[1]++;
+				chunk.clear();
+			}
+		});
+		return new BatchResult(counts[0], counts[1], System.nanoTime() - start);
+	}
+//endregion
+	
+//region streaming
+	
+	/** Callback for {@link BaseController#forEach(Criteria, ResultHandler)}, the result is evicted from the Session after it was handled. */
+	public interface ResultHandler<T>{
+		void handle(T result);
+	}
+	
+	/**
+	 * Stream all records for a entity, the Session {@link #getReadSession()} is used.
+	 * @see #stream(Criteria)
+	 */
+	protected <T> ResultStream<T> stream(Class<T> streamEntity) {
+		return stream(getReadSession().createCriteria(streamEntity));
+	}
+	/**
+	 * Call this method instead of {@link #list(Criteria)} for large results. 
+	 * Rows are scrolled forward-only with {@link #getFetchSize()}, and evicted from the Session one by one, see {@link ResultStream}.
+	 * Do not use it with collection fetch joining, the rows of one entity are not grouped.
+	 * @codeSample
+	 * ResultStream<Account> accounts = stream(getSession().createCriteria(Account.class));
+	 */
+	protected <T> ResultStream<T> stream(Criteria streamCriteria) {
+		return new ResultStream<T>(streamCriteria.setFetchSize(fetchSize).scroll(ScrollMode.FORWARD_ONLY), getSession(), replicaSession);
+	}
+	
+	/**
+	 * Same as {@link #stream(Query)} with a basic HQL statement, the Session {@link #getReadSession()} is used.
+	 * @codeSample
+	 * ResultStream<Account> accounts = stream("from Account");
+	 */
+	protected <T> ResultStream<T> stream(String streamQuery) {
+		return stream(getReadSession().createQuery(streamQuery));
+	}
+	/**
+	 * Same as {@link #stream(Criteria)} for HQL Query.
+	 * @codeSample 
+	 * ResultStream<Account> accounts = stream(getSession().createQuery("from Account"));
+	 */
+	protected <T> ResultStream<T> stream(Query streamQuery) {
+		return new ResultStream<T>(streamQuery.setFetchSize(fetchSize).scroll(ScrollMode.FORWARD_ONLY), getSession(), replicaSession);
+	}
+	
+	/** Same as {@link #forEach(Criteria, ResultHandler)} for all records of a entity */
+	protected <T> int forEach(Class<T> streamEntity, ResultHandler<T> handler) {
+		return forEach(this.<T>stream(streamEntity), handler);
+	}
+	/**
+	 * Handle every result of {@link #stream(Criteria)}, the stream is closed when it returns or throws.
+	 * @return number of handled results
+	 */
+	protected <T> int forEach(Criteria streamCriteria, ResultHandler<T> handler) {
+		return forEach(this.<T>stream(streamCriteria), handler);
+	}
+	/** Same as {@link #forEach(Criteria, ResultHandler)} with a basic HQL statement */
+	protected <T> int forEach(String streamQuery, ResultHandler<T> handler) {
+		return forEach(this.<T>stream(streamQuery), handler);
+	}
+	/** Same as {@link #forEach(Criteria, ResultHandler)} for HQL Query */
+	protected <T> int forEach(Query streamQuery, ResultHandler<T> handler) {
+		return forEach(this.<T>stream(streamQuery), handler);
+	}
+	private static <T> int forEach(ResultStream<T> stream, ResultHandler<T> handler) {
+		int count = 0;
+		try {
+			while (stream.hasNext()) {
+				handler.handle(stream.next());
+				count++;
+			}
+		} finally {
+			stream.close();
+		}
+		return count;
+	}
+//endregion
+	
+//region metrics
+	
+	/**
+	 * Start measuring a controller method, its latency and Hibernate work are recorded by {@link ControllerMetrics} when it is stopped. <br/>
+	 * It returns {@link ControllerMetrics.Measurement#NONE} which records nothing if the metrics are not enabled, 
+	 * see {@link HibernateUtil.SessionFactoryBuilder#enableControllerMetrics(int)}.
+	 * @param method name of the method, the metrics are named by the controller class, such as 'AccountController.getAccounts'
+	 * @codeSample
+	 * <PRE>
+	 * {@code
+	 * public List<Account> getAccounts(){
+	 * 	final Measurement measurement = measure("getAccounts");
+	 * 	try {
+	 * 		return measurement.success(list("from Account"));
+	 * 	} finally {
+	 * 		measurement.stop();
+	 * 	}
+	 * }
+	 * }
+	 * </PRE>
+	 */
+	protected ControllerMetrics.Measurement measure(String method) {
+		final ControllerMetrics metrics = ControllerMetrics.of(getSession().getSessionFactory());
+		return metrics == null ? ControllerMetrics.Measurement.NONE : metrics.start(getClass(), method);
+	}
+//endregion
 
 }
@@ -0,0 +1,40 @@
+package common;
+
+/**
+ * Result of a batch operation such as {@link BaseController#insertAll(Iterable)}, reports the throughput.
+ */
+public class BatchResult {
+	private final int count;
+	private final int flushes;
+	private final long elapsedNanos;
+
+	public BatchResult(int count, int flushes, long elapsedNanos){
+		this.count = count;
+		this.flushes = flushes;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/** Number of processed entities */
+	public int getCount() {
+		return count;
+	}
+	/** Number of Session flushes, each flush sends the pending statements as JDBC batches, or multi-row statements of {@link BaseController#upsertAll(Class, Iterable)} */
+	public int getFlushes() {
+		return flushes;
+	}
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+	public long getElapsedMillis() {
+		return elapsedNanos / 1000000L;
+	}
+	/** Entities per second, 0 if nothing was processed */
+	public double getRowsPerSecond() {
+		return elapsedNanos == 0 ? 0 : count * 1000000000d / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BatchResult\tcount:%d\tflushes:%d\telapsed:%dms\tthroughput:%.1f rows/s", count, flushes, getElapsedMillis(), getRowsPerSecond());
+	}
+}
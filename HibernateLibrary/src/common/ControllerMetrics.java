@@ -0,0 +1,524 @@
+package common;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.jboss.logging.Logger;
+
+/**
+ * @definition
+ * Latency histograms and Hibernate work of controller methods, per SessionFactory. <br/>
+ * Each method records the number of calls and failures, p50, p99 and max latency, JDBC statements, entity loads and fetches, collection fetches and query rows.
+ * The counts are taken from Hibernate's Statistics of the calling thread and the SessionFactory, see {@link MeteredStatistics}, so concurrent calls do not count each other's work.
+ * Nested measured calls are counted by both methods. Writes which Hibernate defers to the flush, such as Session.save of an assigned identifier
+ * and Session.update, are counted by the method which flushes, and by no method if the flush is done by the commit outside of measured calls. <br/>
+ * The metrics are registered to the platform MBean server, see {@link ControllerMetricsMXBean}, and logged periodically if a log interval is set. <br/>
+ * Recording is lock free and does not allocate except the Measurement, a latency histogram has fixed size,
+ * and a percentile is within 12.5% of the recorded latency. Controllers do nothing if it is not enabled. <br/>
+ * It is enabled by {@link HibernateUtil.SessionFactoryBuilder#enableControllerMetrics(int)}, methods are measured by {@link BaseController#measure(String)}.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * for (ControllerMetrics.MethodSnapshot method : ControllerMetrics.of(sessionFactory).getMethods())
+ * 	print(method);
+ * // AccountController.getAccounts	calls:120 errors:0 p50:1.9ms p99:7.6ms max:9.1ms mean:2.2ms statements/call:1.0 loads/call:1000.0 fetches/call:0.0 collection fetches/call:0.0 rows/call:1000.0
+ * }
+ * </PRE>
+ */
+public class ControllerMetrics implements ControllerMetricsMXBean {
+
+	/** Whether the metrics are enabled, see {@link HibernateUtil.SessionFactoryBuilder#enableControllerMetrics(int)} */
+	public static final String ENABLED = "common.controller_metrics.enabled";
+	/** Seconds between log snapshots, 0 to disable logging */
+	public static final String LOG_INTERVAL = "common.controller_metrics.log_interval";
+
+	private static final Logger log = Logger.getLogger(ControllerMetrics.class);
+	/** Counters which are never increased, used when the Statistics of the SessionFactory is not {@link MeteredStatistics} */
+	private static final MeteredStatistics.Counters NO_COUNTERS = new MeteredStatistics.Counters();
+
+	/** Map{@literal<SessionFactory, ControllerMetrics>} */
+	private static final ConcurrentMap<SessionFactory, ControllerMetrics> metrics = new ConcurrentHashMap<SessionFactory, ControllerMetrics>();
+
+	/** Periodic log snapshots of every SessionFactory, daemon threads do not block the process from exiting */
+	private static final ScheduledExecutorService logScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "controller-metrics-log");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Enable the metrics of the SessionFactory, register them to JMX and schedule the log snapshots. Nothing happens if they were enabled.
+	 * @param name name of the SessionFactory, used by the JMX ObjectName and the log
+	 * @param logIntervalSeconds seconds between log snapshots, 0 to disable logging
+	 * @calledBy {@link HibernateUtil.SessionFactoryBuilder#build(org.hibernate.cfg.Configuration)}
+	 */
+	public static ControllerMetrics register(SessionFactory sessionFactory, String name, int logIntervalSeconds){
+		final ControllerMetrics created = new ControllerMetrics(sessionFactory, name);
+		final ControllerMetrics existing = metrics.putIfAbsent(sessionFactory, created);
+		if (existing != null) return existing;
+
+		try {
+			created.objectName = new ObjectName("common:type=ControllerMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(created, created.objectName);
+		} catch (JMException e) {
+			log.warnf(e, "Cannot register the controller metrics of '%s' to JMX", name);	// JMX is optional, such as the name is registered by another class loader
+			created.objectName = null;
+		}
+		if (logIntervalSeconds > 0) {
+			created.logTask = logScheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					created.logSnapshot();
+				}
+			}, logIntervalSeconds, logIntervalSeconds, TimeUnit.SECONDS);
+		}
+		return created;
+	}
+
+	/** Get the metrics of the SessionFactory, null if they are not enabled */
+	public static ControllerMetrics of(SessionFactory sessionFactory){
+		return metrics.get(sessionFactory);
+	}
+
+	/** Drop the metrics of the SessionFactory, unregister them from JMX and stop logging. Call it when the SessionFactory is closed. */
+	public static void release(SessionFactory sessionFactory){
+		final ControllerMetrics released = metrics.remove(sessionFactory);
+		if (released == null) return;
+		if (released.logTask != null) released.logTask.cancel(false);
+		if (released.objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(released.objectName);
+			} catch (JMException e) {
+				log.warnf(e, "Cannot unregister the controller metrics of '%s' from JMX", released.name);
+			}
+		}
+	}
+
+
+
+	private final SessionFactory sessionFactory;
+	private final String name;
+	/** Per thread counters of the SessionFactory, null if its Statistics is not {@link MeteredStatistics} then the counts are 0 */
+	private final MeteredStatistics meteredStatistics;
+	/** Map{@literal<Controller class, Map<Method name, MethodMetrics>>}, two levels so that a call does not build a String key */
+	private final ConcurrentMap<Class<?>, ConcurrentMap<String, MethodMetrics>> methods = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, MethodMetrics>>();
+	private ObjectName objectName;
+	private ScheduledFuture<?> logTask;
+	/** Number of calls at the last log snapshot, nothing is logged if there is no call since then */
+	private long loggedCalls;
+
+	private ControllerMetrics(SessionFactory sessionFactory, String name){
+		this.sessionFactory = sessionFactory;
+		this.name = name;
+		this.meteredStatistics = MeteredStatistics.of(sessionFactory);
+	}
+
+	/**
+	 * Start measuring a call, {@link Measurement#stop()} it in finally
+	 * @calledBy {@link BaseController#measure(String)}
+	 */
+	public Measurement start(Class<?> controller, String method){
+		ConcurrentMap<String, MethodMetrics> controllerMethods = methods.get(controller);
+		if (controllerMethods == null) {
+			final ConcurrentMap<String, MethodMetrics> created = new ConcurrentHashMap<String, MethodMetrics>();
+			controllerMethods = methods.putIfAbsent(controller, created);
+			if (controllerMethods == null) controllerMethods = created;
+		}
+		MethodMetrics methodMetrics = controllerMethods.get(method);
+		if (methodMetrics == null) {
+			final MethodMetrics created = new MethodMetrics(controller.getSimpleName() + "." + method);
+			methodMetrics = controllerMethods.putIfAbsent(method, created);
+			if (methodMetrics == null) methodMetrics = created;
+		}
+		return new Measurement(methodMetrics, meteredStatistics == null ? NO_COUNTERS : meteredStatistics.current());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public List<MethodSnapshot> getMethods(){
+		final List<MethodSnapshot> snapshots = new ArrayList<MethodSnapshot>();
+		for (Map<String, MethodMetrics> controllerMethods : methods.values()) {
+			for (MethodMetrics methodMetrics : controllerMethods.values())
+				snapshots.add(methodMetrics.snapshot());
+		}
+		Collections.sort(snapshots, new Comparator<MethodSnapshot>() {
+			@Override
+			public int compare(MethodSnapshot o1, MethodSnapshot o2) {
+				return o1.getMethod().compareTo(o2.getMethod());
+			}
+		});
+		return snapshots;
+	}
+
+	@Override
+	public String[] getSnapshot(){
+		final List<MethodSnapshot> snapshots = getMethods();
+		final String[] lines = new String[snapshots.size()];
+		for (int i = 0; i < lines.length; i++)
+			lines[i] = snapshots.get(i).toString();
+		return lines;
+	}
+
+	/** 
+	 * Zero the metrics of every method. The methods are kept, so a call which is in flight is recorded after the reset instead of being lost.
+	 * The counters are zeroed one by one, a call which is recorded meanwhile may be partly counted.
+	 */
+	@Override
+	public void reset(){
+		for (Map<String, MethodMetrics> controllerMethods : methods.values()) {
+			for (MethodMetrics methodMetrics : controllerMethods.values())
+				methodMetrics.reset();
+		}
+	}
+
+	/** Log the snapshot at INFO level, nothing is logged if there is no call since the last snapshot */
+	void logSnapshot(){
+		try {
+			final List<MethodSnapshot> snapshots = getMethods();
+			long calls = 0;
+			for (MethodSnapshot snapshot : snapshots)
+				calls += snapshot.getCount();
+			if (calls == loggedCalls) return;
+			loggedCalls = calls;
+			log.info(toString(snapshots));
+		} catch (RuntimeException e) {
+			log.warnf(e, "Cannot log the controller metrics of '%s'", name);	// an exception cancels the periodic task
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toString(getMethods());
+	}
+	private String toString(List<MethodSnapshot> snapshots){
+		final StringBuilder builder = new StringBuilder("Controller metrics of '").append(name).append("'");
+		for (MethodSnapshot snapshot : snapshots)
+			builder.append('\n').append(snapshot);
+		return builder.toString();
+	}
+
+//region statistics
+
+	private Statistics statistics(){
+		return sessionFactory.getStatistics();
+	}
+	@Override
+	public boolean isStatisticsEnabled() {
+		return statistics().isStatisticsEnabled();
+	}
+	@Override
+	public long getSessionOpenCount() {
+		return statistics().getSessionOpenCount();
+	}
+	@Override
+	public long getPrepareStatementCount() {
+		return statistics().getPrepareStatementCount();
+	}
+	@Override
+	public long getQueryExecutionCount() {
+		return statistics().getQueryExecutionCount();
+	}
+	@Override
+	public long getQueryExecutionMaxTime() {
+		return statistics().getQueryExecutionMaxTime();
+	}
+	@Override
+	public String getQueryExecutionMaxTimeQueryString() {
+		return statistics().getQueryExecutionMaxTimeQueryString();
+	}
+	@Override
+	public long getEntityLoadCount() {
+		return statistics().getEntityLoadCount();
+	}
+	@Override
+	public long getEntityFetchCount() {
+		return statistics().getEntityFetchCount();
+	}
+	@Override
+	public long getCollectionFetchCount() {
+		return statistics().getCollectionFetchCount();
+	}
+	@Override
+	public long getSecondLevelCacheHitCount() {
+		return statistics().getSecondLevelCacheHitCount();
+	}
+	@Override
+	public long getSecondLevelCacheMissCount() {
+		return statistics().getSecondLevelCacheMissCount();
+	}
+	@Override
+	public long getTransactionCount() {
+		return statistics().getTransactionCount();
+	}
+//endregion
+
+
+
+//	INNER CLASS		\\
+	/**
+	 * One call of a controller method, it is not thread safe and it is used by the calling thread only.
+	 * @codeSample
+	 * <PRE>
+	 * {@code
+	 * final Measurement measurement = measure("getAccounts");
+	 * try {
+	 * 	return measurement.success(list("from Account"));
+	 * } finally {
+	 * 	measurement.stop();		// counted as an error if success was not called
+	 * }
+	 * }
+	 * </PRE>
+	 */
+	public static class Measurement{
+		/** Measurement which records nothing, it is returned when the metrics are not enabled */
+		public static final Measurement NONE = new Measurement(null, null);
+
+		private final MethodMetrics metrics;
+		private final MeteredStatistics.Counters counters;
+		private final long start;
+		private final long statements, entityLoads, entityFetches, collectionFetches, rows;
+		private boolean succeeded;
+
+		private Measurement(MethodMetrics metrics, MeteredStatistics.Counters counters){
+			this.metrics = metrics;
+			this.counters = counters;
+			if (metrics == null) {
+				this.start = this.statements = this.entityLoads = this.entityFetches = this.collectionFetches = this.rows = 0;
+				return;
+			}
+			this.statements = counters.statements;
+			this.entityLoads = counters.entityLoads;
+			this.entityFetches = counters.entityFetches;
+			this.collectionFetches = counters.collectionFetches;
+			this.rows = counters.rows;
+			this.start = System.nanoTime();
+		}
+
+		/** Mark the call as succeeded and return the result */
+		public <T> T success(T result){
+			success();
+			return result;
+		}
+		/** Mark the call as succeeded */
+		public void success(){
+			if (metrics != null) succeeded = true;
+		}
+
+		/** Record the latency and the Hibernate work of the call, call it once in finally */
+		public void stop(){
+			if (metrics == null) return;
+			final long elapsed = System.nanoTime() - start;
+			metrics.record(elapsed, succeeded, counters.statements - statements, counters.entityLoads - entityLoads,
+					counters.entityFetches - entityFetches, counters.collectionFetches - collectionFetches, counters.rows - rows);
+		}
+	}
+
+	/** Accumulated metrics of one controller method */
+	private static class MethodMetrics{
+		private final String method;
+		private final Histogram latency = new Histogram();
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLong statements = new AtomicLong();
+		private final AtomicLong entityLoads = new AtomicLong();
+		private final AtomicLong entityFetches = new AtomicLong();
+		private final AtomicLong collectionFetches = new AtomicLong();
+		private final AtomicLong rows = new AtomicLong();
+
+		private MethodMetrics(String method){
+			this.method = method;
+		}
+
+		private void record(long nanos, boolean succeeded, long statements, long entityLoads, long entityFetches, long collectionFetches, long rows){
+			latency.record(nanos / 1000L);
+			count.incrementAndGet();
+			if (!succeeded) errors.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			for (long max = maxNanos.get(); nanos > max && !maxNanos.compareAndSet(max, nanos); max = maxNanos.get());
+			if (statements != 0) this.statements.addAndGet(statements);
+			if (entityLoads != 0) this.entityLoads.addAndGet(entityLoads);
+			if (entityFetches != 0) this.entityFetches.addAndGet(entityFetches);
+			if (collectionFetches != 0) this.collectionFetches.addAndGet(collectionFetches);
+			if (rows != 0) this.rows.addAndGet(rows);
+		}
+
+		private void reset(){
+			latency.reset();
+			count.set(0);
+			errors.set(0);
+			totalNanos.set(0);
+			maxNanos.set(0);
+			statements.set(0);
+			entityLoads.set(0);
+			entityFetches.set(0);
+			collectionFetches.set(0);
+			rows.set(0);
+		}
+
+		/** The counters are read one by one, they may differ by the calls which are recorded meanwhile */
+		private MethodSnapshot snapshot(){
+			final long maxMicros = maxNanos.get() / 1000L;
+			final long calls = count.get();
+			return new MethodSnapshot(method, calls, errors.get(),
+					calls == 0 ? 0 : totalNanos.get() / 1000000.0 / calls,
+					Math.min(latency.percentile(0.50), maxMicros) / 1000.0,
+					Math.min(latency.percentile(0.99), maxMicros) / 1000.0,
+					maxMicros / 1000.0,
+					statements.get(), entityLoads.get(), entityFetches.get(), collectionFetches.get(), rows.get());
+		}
+	}
+
+	/**
+	 * Log-linear histogram of microseconds, 8 buckets per power of 2, so a bucket is at most 12.5% wide. <br/>
+	 * Values up to 2^41 microseconds (25 days) are distinguished, larger values are counted by the last bucket.
+	 */
+	private static class Histogram{
+		private static final int SUB_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+		private static final int MAX_EXPONENT = 40;
+		private final AtomicLongArray buckets = new AtomicLongArray((MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS);
+
+		private void record(long micros){
+			buckets.incrementAndGet(indexOf(micros));
+		}
+		private void reset(){
+			for (int i = 0; i < buckets.length(); i++)
+				buckets.set(i, 0);
+		}
+
+		/** Upper bound of the bucket of the percentile, 0 if nothing was recorded */
+		private long percentile(double percentile){
+			final long[] counts = new long[buckets.length()];
+			long total = 0;
+			for (int i = 0; i < counts.length; i++)
+				total += counts[i] = buckets.get(i);
+			if (total == 0) return 0;
+
+			final long rank = Math.max(1, (long) Math.ceil(percentile * total));
+			long cumulative = 0;
+			for (int i = 0; i < counts.length; i++) {
+				cumulative += counts[i];
+				if (cumulative >= rank) return upperBoundOf(i);
+			}
+			return upperBoundOf(counts.length - 1);
+		}
+
+		private static int indexOf(long micros){
+			if (micros < SUB_BUCKETS) return (int) Math.max(micros, 0);
+			final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+			if (exponent > MAX_EXPONENT) return (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS - 1;
+			final int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+		}
+		private static long upperBoundOf(int index){
+			if (index < SUB_BUCKETS) return index;
+			final int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+			final int sub = index % SUB_BUCKETS;
+			return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+		}
+	}
+
+	/** Metrics of one controller method at the time it was taken, latencies are in milliseconds and counts are totals of all calls */
+	public static class MethodSnapshot{
+		private final String method;
+		private final long count, errors;
+		private final double meanMillis, p50Millis, p99Millis, maxMillis;
+		private final long statements, entityLoads, entityFetches, collectionFetches, rows;
+
+		@ConstructorProperties({"method", "count", "errors", "meanMillis", "p50Millis", "p99Millis", "maxMillis",
+			"statements", "entityLoads", "entityFetches", "collectionFetches", "rows"})
+		public MethodSnapshot(String method, long count, long errors, double meanMillis, double p50Millis, double p99Millis, double maxMillis,
+				long statements, long entityLoads, long entityFetches, long collectionFetches, long rows){
+			this.method = method;
+			this.count = count;
+			this.errors = errors;
+			this.meanMillis = meanMillis;
+			this.p50Millis = p50Millis;
+			this.p99Millis = p99Millis;
+			this.maxMillis = maxMillis;
+			this.statements = statements;
+			this.entityLoads = entityLoads;
+			this.entityFetches = entityFetches;
+			this.collectionFetches = collectionFetches;
+			this.rows = rows;
+		}
+
+		/** Controller class and method, such as 'AccountController.getAccounts' */
+		public String getMethod() {
+			return method;
+		}
+		public long getCount() {
+			return count;
+		}
+		/** Calls which did not call {@link Measurement#success()}, such as they threw */
+		public long getErrors() {
+			return errors;
+		}
+		public double getMeanMillis() {
+			return meanMillis;
+		}
+		public double getP50Millis() {
+			return p50Millis;
+		}
+		public double getP99Millis() {
+			return p99Millis;
+		}
+		public double getMaxMillis() {
+			return maxMillis;
+		}
+		/** JDBC statements which were prepared */
+		public long getStatements() {
+			return statements;
+		}
+		public long getEntityLoads() {
+			return entityLoads;
+		}
+		/** Entities which were fetched by separate statements, such as lazy proxies */
+		public long getEntityFetches() {
+			return entityFetches;
+		}
+		/** Collections which were fetched by separate statements, such as lazy collections, a high number is a sign of N+1 selects */
+		public long getCollectionFetches() {
+			return collectionFetches;
+		}
+		/** Rows which were returned by HQL and Criteria queries */
+		public long getRows() {
+			return rows;
+		}
+
+		@Override
+		public String toString() {
+			final double calls = Math.max(count, 1);
+			return String.format("%s\tcalls:%d errors:%d p50:%.1fms p99:%.1fms max:%.1fms mean:%.1fms statements/call:%.1f loads/call:%.1f fetches/call:%.1f collection fetches/call:%.1f rows/call:%.1f",
+					method, count, errors, p50Millis, p99Millis, maxMillis, meanMillis,
+					statements / calls, entityLoads / calls, entityFetches / calls, collectionFetches / calls, rows / calls);
+		}
+	}
+}
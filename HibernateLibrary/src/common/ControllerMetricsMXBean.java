@@ -0,0 +1,35 @@
+package common;
+
+import java.util.List;
+
+/**
+ * @definition
+ * JMX view of {@link ControllerMetrics}, it is registered as 'common:type=ControllerMetrics,name=[SessionFactory name]'
+ * so the metrics can be read by JConsole, VisualVM or a JMX exporter.
+ */
+public interface ControllerMetricsMXBean {
+
+	/** Metrics of every measured controller method, ordered by method name */
+	List<ControllerMetrics.MethodSnapshot> getMethods();
+
+	/** Same as {@link #getMethods()} as text, one line per method */
+	String[] getSnapshot();
+
+	/** Clear the metrics of every method, Hibernate's Statistics are not cleared */
+	void reset();
+
+	// Hibernate Statistics of the SessionFactory, totals since it was built
+
+	boolean isStatisticsEnabled();
+	long getSessionOpenCount();
+	long getPrepareStatementCount();
+	long getQueryExecutionCount();
+	long getQueryExecutionMaxTime();
+	String getQueryExecutionMaxTimeQueryString();
+	long getEntityLoadCount();
+	long getEntityFetchCount();
+	long getCollectionFetchCount();
+	long getSecondLevelCacheHitCount();
+	long getSecondLevelCacheMissCount();
+	long getTransactionCount();
+}
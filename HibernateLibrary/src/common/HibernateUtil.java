@@ -3,23 +3,235 @@ package common;
 import java.io.File;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.id.enhanced.OptimizerFactory;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.SimpleValue;
+import org.hibernate.service.ServiceRegistry;
 import org.hibernate.service.ServiceRegistryBuilder;
+import org.hibernate.stat.internal.StatisticsInitiator;
 
 public class HibernateUtil {
 	
-	private static SessionFactory sessionFactory;
+	/** Name of the SessionFactory which is built without {@link SessionFactoryBuilder#setName(String)} */
+	public static final String DEFAULT_NAME = "primary";
 	
-	/** Get the SessionFactory which was built by {@link SessionFactoryBuilder} */
+	/** Map{@literal<Name, SessionFactory>}, each SessionFactory is built once, see {@link SessionFactoryBuilder#build()} */
+	private static final ConcurrentMap<String, SessionFactory> sessionFactories = new ConcurrentHashMap<String, SessionFactory>();
+	/** Names which are being built or were built, a name is reserved before it is built so that it is built once without a global lock */
+	private static final ConcurrentMap<String, Boolean> reservedNames = new ConcurrentHashMap<String, Boolean>();
+	/** Map{@literal<Name, ServiceRegistry>} of the SessionFactories, they are destroyed by {@link #closeSessionFactory(String)} */
+	private static final ConcurrentMap<String, ServiceRegistry> serviceRegistries = new ConcurrentHashMap<String, ServiceRegistry>();
+	
+	/** Get the default SessionFactory which was built by {@link SessionFactoryBuilder} */
 	public static SessionFactory getSessionFactory(){
+		return getSessionFactory(DEFAULT_NAME);
+	}
+	/**
+	 * Get the named SessionFactory, such as 'reporting', which was built by {@link SessionFactoryBuilder#setName(String)}
+	 * @codeSample
+	 * <PRE>
+	 * {@code
+	 * Session session = HibernateUtil.getSessionFactory("reporting").openSession();
+	 * AccountController controller = new AccountController(session, true);	// reporting queries do not use the primary pool
+	 * }
+	 * </PRE>
+	 */
+	public static SessionFactory getSessionFactory(String name){
+		final SessionFactory sessionFactory = sessionFactories.get(name);
 		if (sessionFactory == null)
-			throw new RuntimeException("Session Factory was not built, see " + SessionFactoryBuilder.class.getName());
+			throw new RuntimeException("Session Factory '" + name + "' was not built, see " + SessionFactoryBuilder.class.getName());
 		return sessionFactory;
 	}
 	
+	/** Whether the named SessionFactory was built */
+	public static boolean hasSessionFactory(String name){
+		return sessionFactories.containsKey(name);
+	}
+	
+	/**
+	 * Close the named SessionFactory and remove it, then it can be built again. Nothing happens if it was not built. <br/>
+	 * Its ServiceRegistry is destroyed too, so the connection pool is stopped and idle connections are closed,
+	 * connections which are still checked out are closed when they are returned.
+	 * Close the Sessions first, a Session of a closed SessionFactory cannot be closed by hibernate.
+	 */
+	public static void closeSessionFactory(String name){
+		final SessionFactory sessionFactory = sessionFactories.remove(name);
+		if (sessionFactory != null) {
+			SearchPlan.release(sessionFactory);
+			QueryShapeCache.release(sessionFactory);
+			SearchResultCache.release(sessionFactory);
+			ControllerMetrics.release(sessionFactory);
+			AsyncController.release(sessionFactory);
+			final List<Runnable> releases = closeReleases.remove(sessionFactory);
+			if (releases != null) {
+				for (Runnable release : releases) {
+					try {
+						release.run();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+			sessionFactory.close();
+			final ServiceRegistry serviceRegistry = serviceRegistries.remove(name);
+			if (serviceRegistry != null) ServiceRegistryBuilder.destroy(serviceRegistry);
+			reservedNames.remove(name);
+		}
+	}
+	
+	/** Map{@literal<SessionFactory, Releases>} which are run by {@link #closeSessionFactory(String)}, see {@link #onClose(SessionFactory, Runnable)} */
+	private static final ConcurrentMap<SessionFactory, List<Runnable>> closeReleases = new ConcurrentHashMap<SessionFactory, List<Runnable>>();
+	
+	/**
+	 * Run the release when the SessionFactory is closed by {@link #closeSessionFactory(String)}. <br/>
+	 * Per-SessionFactory state outside this library registers its release here, such as RoleIndex of Hibernate API, 
+	 * so the state does not keep the closed SessionFactory reachable.
+	 */
+	public static void onClose(SessionFactory sessionFactory, Runnable release){
+		List<Runnable> releases = closeReleases.get(sessionFactory);
+		if (releases == null) {
+			final List<Runnable> created = new CopyOnWriteArrayList<Runnable>();
+			releases = closeReleases.putIfAbsent(sessionFactory, created);
+			if (releases == null) releases = created;
+		}
+		releases.add(release);
+	}
+	
+//region unit_of_work
+	
+	/** Map{@literal<SessionFactory, Session>} of the units of work which are running on the thread */
+	private static final ThreadLocal<Map<SessionFactory, Session>> currentSessions = new ThreadLocal<Map<SessionFactory, Session>>() {
+		@Override
+		protected Map<SessionFactory, Session> initialValue() {
+			return new HashMap<SessionFactory, Session>();
+		}
+	};
+	
+	/** Work which is done by one Session and one transaction, see {@link HibernateUtil#inTransaction(UnitOfWork)} */
+	public interface UnitOfWork<T>{
+		T run(Session session) throws Exception;
+	}
+	
+	/**
+	 * Run the work by a new Session of the default SessionFactory in a transaction, it is committed when the work returns and rolled back when it throws.
+	 * The Session is bound to the thread during the work, see {@link #getCurrentSession()}, and it is always closed. <br/>
+	 * A nested call joins the running unit of work, therefore the whole unit uses one Session and one connection.
+	 * @codeSample
+	 * <PRE>
+	 * {@code
+	 * HibernateUtil.inTransaction(new UnitOfWork<Void>() {
+	 * 	public Void run(Session session) {
+	 * 		new AccountController(session).insertAccount(new Account("Woody", "123456"));
+	 * 		return null;
+	 * 	}
+	 * });
+	 * }
+	 * </PRE>
+	 * @throws RuntimeException the exception of the work, checked exceptions are wrapped
+	 */
+	public static <T> T inTransaction(UnitOfWork<T> work){
+		return inTransaction(getSessionFactory(), work);
+	}
+	/** Same as {@link #inTransaction(UnitOfWork)} by the SessionFactory, such as {@link #getSessionFactory(String)} */
+	public static <T> T inTransaction(SessionFactory sessionFactory, UnitOfWork<T> work){
+		return doWork(sessionFactory, work, false);
+	}
+	
+	/**
+	 * Same as {@link #inTransaction(UnitOfWork)} for reads, the Session is default read only and {@link FlushMode#MANUAL}, 
+	 * therefore entities are not dirty checked and nothing is written. <br/>
+	 * A nested call joins the running unit of work, even if it is not read only.
+	 */
+	public static <T> T readOnly(UnitOfWork<T> work){
+		return readOnly(getSessionFactory(), work);
+	}
+	/** Same as {@link #readOnly(UnitOfWork)} by the SessionFactory, such as {@link #getSessionFactory(String)} */
+	public static <T> T readOnly(SessionFactory sessionFactory, UnitOfWork<T> work){
+		return doWork(sessionFactory, work, true);
+	}
+	
+	/**
+	 * Session of the unit of work which is running on the thread, controllers can reuse it without passing it around.
+	 * @throws RuntimeException if no unit of work is running, see {@link #inTransaction(UnitOfWork)}
+	 */
+	public static Session getCurrentSession(){
+		return getCurrentSession(getSessionFactory());
+	}
+	/** Same as {@link #getCurrentSession()} for the SessionFactory */
+	public static Session getCurrentSession(SessionFactory sessionFactory){
+		final Session session = currentSessions.get().get(sessionFactory);
+		if (session == null)
+			throw new RuntimeException("No unit of work is running on the thread, see " + HibernateUtil.class.getName() + ".inTransaction");
+		return session;
+	}
+	
+	private static <T> T doWork(SessionFactory sessionFactory, UnitOfWork<T> work, boolean readOnly){
+		final Map<SessionFactory, Session> sessions = currentSessions.get();
+		final Session current = sessions.get(sessionFactory);
+		if (current != null) {
+			if (!readOnly && current.isDefaultReadOnly())
+				throw new IllegalStateException("Cannot write inside a read only unit of work");
+			return run(work, current);		// join the running unit of work
+		}
+		
+		final Session session = sessionFactory.openSession();
+		Transaction tx = null;
+		sessions.put(sessionFactory, session);
+		try {
+			if (readOnly) {
+				session.setDefaultReadOnly(true);
+				session.setFlushMode(FlushMode.MANUAL);
+			}
+			tx = session.beginTransaction();	// the connection is checked out once and held until the end of the transaction
+			final T result = run(work, session);
+			tx.commit();
+			return result;
+		} catch (RuntimeException e) {
+			rollback(tx);
+			throw e;
+		} catch (Error e) {
+			rollback(tx);
+			throw e;
+		} finally {
+			sessions.remove(sessionFactory);
+			if (sessions.isEmpty()) currentSessions.remove();		// do not leave the map on pooled threads
+			session.close();
+		}
+	}
+	private static <T> T run(UnitOfWork<T> work, Session session){
+		try {
+			return work.run(session);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	private static void rollback(Transaction tx){
+		try {
+			if (tx != null && tx.isActive()) tx.rollback();
+		} catch (RuntimeException e) {
+			e.printStackTrace();	// keep the exception of the work
+		}
+	}
+//endregion
+	
 	public static SessionFactoryBuilder createSessionFactoryBuilder(){
 		return new SessionFactoryBuilder();
 	}
@@ -27,6 +239,9 @@ public class HibernateUtil {
 	// INNER CLASS
 	public static class SessionFactoryBuilder{
 		
+		/** Name of the SessionFactory to build, see {@link HibernateUtil#getSessionFactory(String)} */
+		private String name = DEFAULT_NAME;
+		
 		/**
 		 * The location of hibernate.cfg.xml
 		 * Supported location type - String, File, URL
@@ -39,8 +254,26 @@ public class HibernateUtil {
 		 */
 		private final Map<Object, Void> resources = new HashMap<Object, Void>();		
 
+		/** Additional properties which override the properties of hibernate.cfg.xml */
+		private final Properties properties = new Properties();
+		
+		/** Map{@literal<Entity name, block size>}, entities which use pooled table identifier generator, see {@link #setPooledIdentifierGenerator(Class, int)} */
+		private final Map<String, Integer> pooledIdentifiers = new HashMap<String, Integer>();
+		
+		private StartupReport startupReport;
+		/** Local copies of URL resources, null if they are fetched at every build, see {@link #setRemoteConfigurationCache(File, int)} */
+		private RemoteConfigurationCache remoteConfigurationCache;
 		
 		
+		/**
+		 * Set the name of the SessionFactory, so that one process can access several databases. Default is {@link HibernateUtil#DEFAULT_NAME}.
+		 * @param name such as 'reporting'
+		 */
+		public SessionFactoryBuilder setName(String name){
+			this.name = name;
+			return this;
+		}
+		
 		/**
 		 * Set the path for hibernate.cfg.xml. Note that it should contains Property configuration only.
 		 * @param hibernate_cfg_xml_internal_path such as '/com/hibernate.cfg.xml', default is 'hibernate.cfg.xml' which located at [project]/src
@@ -84,13 +317,99 @@ public class HibernateUtil {
 			return this;
 		}
 		
+		
+		/**
+		 * Set a hibernate property, it overrides the same property of hibernate.cfg.xml
+		 * @param propertyName such as 'hibernate.show_sql'
+		 */
+		public SessionFactoryBuilder setProperty(String propertyName, String value){
+			properties.setProperty(propertyName, value);
+			return this;
+		}
+		
+		/**
+		 * Order of a composite primary key for searches and keyset pagination, it should be the column order of the primary key index. <br/>
+		 * Without it, the mapped component order is used, and Hibernate sorts the properties of an annotated embeddable by name. See {@link SearchPlan#KEY_ORDER}.
+		 * @param componentNames all component property names, such as ("site", "location", "name") of model.UserId
+		 */
+		public SessionFactoryBuilder setKeyOrder(Class<?> entityClass, String... componentNames){
+			final StringBuilder keyOrder = new StringBuilder();
+			for (String componentName : componentNames)
+				keyOrder.append(keyOrder.length() == 0 ? "" : ",").append(componentName);
+			setProperty(SearchPlan.KEY_ORDER + entityClass.getName(), keyOrder.toString());
+			return this;
+		}
+		
+		/**
+		 * Enable JDBC batching, inserts and updates are ordered by entity so that statements of the same entity are batched together.
+		 * @param batchSize hibernate.jdbc.batch_size, also used by {@link BaseController#insertAll(Iterable)} as flush interval
+		 */
+		public SessionFactoryBuilder setJdbcBatchSize(int batchSize){
+			setProperty(Environment.STATEMENT_BATCH_SIZE, String.valueOf(batchSize));
+			setProperty(Environment.ORDER_INSERTS, "true");
+			setProperty(Environment.ORDER_UPDATES, "true");
+			return this;
+		}
+		
 
 		/**
-		 * Build a SessionFactory, then you can call {@link HibernateUtil #getSessionFactory()} to reuse it.
+		 * Load lazy associations of several entities by one query, such as the roles of every account in a list. 
+		 * It applies to associations which do not set {@literal @BatchSize}.
+		 * @param batchSize hibernate.default_batch_fetch_size, number of proxies or collections initialized together
+		 */
+		public SessionFactoryBuilder setDefaultBatchFetchSize(int batchSize){
+			setProperty(Environment.DEFAULT_BATCH_FETCH_SIZE, String.valueOf(batchSize));
+			return this;
+		}
+		
+		/**
+		 * Cache http and https configuration resources on local disk, such as {@link #setPropertyConfiguration(URL)} of a config server. <br/>
+		 * A copy which was validated within the max-stale window is used immediately and revalidated in the background, see {@link RemoteConfigurationCache}.
+		 * @param directory where the copies are stored
+		 * @param maxStaleSeconds how long a copy is used without waiting for the server
+		 */
+		public SessionFactoryBuilder setRemoteConfigurationCache(File directory, int maxStaleSeconds){
+			this.remoteConfigurationCache = new RemoteConfigurationCache(directory, maxStaleSeconds);
+			return this;
+		}
+		
+		/** Elapsed time of each phase of the last {@link #build()}, null before it is built */
+		public StartupReport getStartupReport(){
+			return startupReport;
+		}
+		
+		/**
+		 * Build a SessionFactory, then you can call {@link HibernateUtil #getSessionFactory()} to reuse it. <br/>
+		 * A SessionFactory is built once per name, close it by {@link HibernateUtil#closeSessionFactory(String)} before it is built again.
+		 * @throws RuntimeException if the name was built or is being built, the configuration of this builder is not compared with the existing one
 		 * @see SessionFactoryBuilder#build(Configuration)
 		 */
 		public SessionFactory build(){
-			return this.build(this.configureAll());
+			checkNotBuilt();
+			
+			final StartupReport report = new StartupReport();
+			this.startupReport = report;
+			
+			final Configuration configuration = this.configureAll();
+			report.mark("parse xml");
+			configuration.buildMappings();		// scan annotated classes
+			report.mark("build mappings");
+			
+			final SessionFactory sessionFactory = this.build(configuration);
+			report.mark("build session factory");
+			return sessionFactory;
+		}
+		private void checkNotBuilt(){
+			if (reservedNames.containsKey(name)) throw alreadyBuilt();
+		}
+		private RuntimeException alreadyBuilt(){
+			return new RuntimeException("Session Factory '" + name + "' was built or is being built, get it by HibernateUtil.getSessionFactory or close it by HibernateUtil.closeSessionFactory before building it again");
+		}
+		/** Local copy of a remote URL if {@link #setRemoteConfigurationCache(File, int)} is set, otherwise the same resource */
+		private Object resolve(Object resource){
+			if (resource instanceof URL && remoteConfigurationCache != null)
+				return remoteConfigurationCache.resolve((URL) resource);
+			return resource;
 		}
 		/**
 		 * Configure all resources which was parsed to the Builder. Call this when there are additional configuration which the Builder cannot do.
@@ -107,10 +426,19 @@ public class HibernateUtil {
 			for (Object resource : resources.keySet())
 				this.doConfigureSupportedType(configuration, resource);
 			
+			// Properties which was set to the Builder override the XML properties.
+			configuration.addProperties(properties);
+
+			// Cache usages are mapped in mapping.xml, they are ignored unless a region factory is configured.
+			if (configuration.getProperty(Environment.CACHE_REGION_FACTORY) == null &&
+				configuration.getProperty(Environment.USE_SECOND_LEVEL_CACHE) == null)
+				configuration.setProperty(Environment.USE_SECOND_LEVEL_CACHE, "false");
+
 			return configuration;
 		}
 		/** Call Configure.configure with auto casting supported type */
 		private void doConfigureSupportedType(Configuration configuration, Object resource){
+			resource = this.resolve(resource);
 			if (resource instanceof String)				// String
 				configuration.configure((String) resource);
 			else if (resource instanceof File)			// File
@@ -119,13 +447,161 @@ public class HibernateUtil {
 				configuration.configure((URL) resource);
 		}
 		
+		/**
+		 * Use {@link PooledConnectionProvider} instead of the built-in DriverManager connection provider.
+		 * @param minSize number of connections opened at start
+		 * @param maxSize maximum number of connections, callers wait for a free connection when all are checked out
+		 */
+		public SessionFactoryBuilder setConnectionPool(int minSize, int maxSize){
+			setProperty(Environment.CONNECTION_PROVIDER, PooledConnectionProvider.class.getName());
+			setProperty(PooledConnectionProvider.MIN_SIZE, String.valueOf(minSize));
+			setProperty(PooledConnectionProvider.MAX_SIZE, String.valueOf(maxSize));
+			return this;
+		}
+		/** Milliseconds to wait for a free pooled connection, see {@link #setConnectionPool(int, int)} */
+		public SessionFactoryBuilder setConnectionAcquireTimeout(int acquireTimeoutMillis){
+			setProperty(PooledConnectionProvider.ACQUIRE_TIMEOUT, String.valueOf(acquireTimeoutMillis));
+			return this;
+		}
+		/** Close idle pooled connections above the minimum size after the seconds, 0 to keep them, see {@link #setConnectionPool(int, int)} */
+		public SessionFactoryBuilder setConnectionIdleTimeout(int idleTimeoutSeconds){
+			setProperty(PooledConnectionProvider.IDLE_TIMEOUT, String.valueOf(idleTimeoutSeconds));
+			return this;
+		}
+		/** Validate idle pooled connections before reuse, see {@link #setConnectionPool(int, int)} */
+		public SessionFactoryBuilder setConnectionValidation(int validationTimeoutSeconds){
+			setProperty(PooledConnectionProvider.VALIDATION_TIMEOUT, String.valueOf(validationTimeoutSeconds));
+			return this;
+		}
+		/** Number of prepared statements cached per pooled connection, see {@link #setConnectionPool(int, int)} */
+		public SessionFactoryBuilder setStatementCacheSize(int statementCacheSize){
+			setProperty(PooledConnectionProvider.STATEMENT_CACHE_SIZE, String.valueOf(statementCacheSize));
+			return this;
+		}
+		
+		/**
+		 * Enable second-level cache by {@link LocalRegionFactory}, entities and collections are cached if cache usage is mapped,
+		 * such as {@literal <class-cache class="model.Role" usage="read-only"/>} of mapping.xml.
+		 * @param queryCache whether the query cache is enabled, queries are cached only if they are set cacheable
+		 */
+		public SessionFactoryBuilder enableSecondLevelCache(boolean queryCache){
+			setProperty(Environment.USE_SECOND_LEVEL_CACHE, "true");
+			setProperty(Environment.USE_QUERY_CACHE, String.valueOf(queryCache));
+			setProperty(Environment.CACHE_REGION_FACTORY, LocalRegionFactory.class.getName());
+			return this;
+		}
+		/**
+		 * Set the eviction of a cache region, see {@link #enableSecondLevelCache(boolean)}
+		 * @param regionName entity name or collection role by default, such as 'model.Role' or 'model.Account.accountroles'
+		 * @param maxEntries maximum number of entries, the least recently used entry is evicted when it is full. 0 for unbounded
+		 * @param ttlSeconds seconds to live of entries, 0 for no expiration
+		 */
+		public SessionFactoryBuilder setCacheRegion(String regionName, int maxEntries, int ttlSeconds){
+			setProperty(LocalRegionFactory.REGION_PREFIX + regionName + LocalRegionFactory.MAX_ENTRIES_SUFFIX, String.valueOf(maxEntries));
+			setProperty(LocalRegionFactory.REGION_PREFIX + regionName + LocalRegionFactory.TTL_SUFFIX, String.valueOf(ttlSeconds));
+			return this;
+		}
+		
+		/**
+		 * Cache the results of {@link BaseController.Searcher#search(Class, Object)}, entries are invalidated by writes of the same tables, see {@link SearchResultCache}.
+		 * @param maxEntries maximum number of cached searches, the least recently used search is evicted when it is full
+		 */
+		public SessionFactoryBuilder enableSearchResultCache(int maxEntries){
+			setProperty(SearchResultCache.MAX_ENTRIES, String.valueOf(maxEntries));
+			return this;
+		}
+		
+		/**
+		 * Measure controller methods, see {@link ControllerMetrics} and {@link BaseController#measure(String)}. 
+		 * Hibernate's Statistics are enabled and counted per thread by {@link MeteredStatistics}. 
+		 * @param logIntervalSeconds seconds between log snapshots of the metrics, 0 to disable logging. They are always available by JMX.
+		 */
+		public SessionFactoryBuilder enableControllerMetrics(int logIntervalSeconds){
+			setProperty(Environment.GENERATE_STATISTICS, "true");
+			setProperty(StatisticsInitiator.STATS_BUILDER, MeteredStatistics.Factory.class.getName());
+			setProperty(ControllerMetrics.ENABLED, "true");
+			setProperty(ControllerMetrics.LOG_INTERVAL, String.valueOf(logIntervalSeconds));
+			return this;
+		}
+		
+		/**
+		 * Generate identifiers of an entity by a table-backed pooled allocator instead of the mapped generator, such as identity. <br/>
+		 * Identity columns disable JDBC insert batching because the id is known after each insert, 
+		 * the pooled allocator reserves blockSize identifiers by one round trip therefore inserts can be batched. 
+		 * The generator is replaced on the built mappings, so it works for both annotated classes and hbm.xml files. <br/>
+		 * The allocator table is 'hibernate_sequences' at the catalog of the entity table, one row per entity table:
+		 * <PRE>
+		 * create table hibernate_sequences (sequence_name varchar(255) not null, next_val bigint, primary key (sequence_name))
+		 * </PRE>
+		 * The initial value should be greater than the current max id if the table has records.
+		 * @param entityClass such as Accountrole.class
+		 * @param blockSize number of identifiers reserved by one allocation
+		 */
+		public SessionFactoryBuilder setPooledIdentifierGenerator(Class<?> entityClass, int blockSize){
+			if (blockSize <= 0)
+				throw new IllegalArgumentException("blockSize must be positive");
+			pooledIdentifiers.put(entityClass.getName(), blockSize);
+			return this;
+		}
+		/** Replace the identifier generators which was set by {@link #setPooledIdentifierGenerator(Class, int)} */
+		private void doConfigurePooledIdentifiers(Configuration configuration){
+			if (pooledIdentifiers.isEmpty()) return;
+			
+			configuration.buildMappings();
+			for (Map.Entry<String, Integer> entry : pooledIdentifiers.entrySet()) {
+				PersistentClass persistentClass = configuration.getClassMapping(entry.getKey());
+				if (persistentClass == null)
+					throw new RuntimeException(entry.getKey() + " is not a mapped entity");
+				
+				Properties parameters = new Properties();
+				parameters.put(PersistentIdentifierGenerator.IDENTIFIER_NORMALIZER, configuration.createMappings().getObjectNameNormalizer());
+				parameters.setProperty(TableGenerator.SEGMENT_VALUE_PARAM, persistentClass.getTable().getName());
+				parameters.setProperty(TableGenerator.INCREMENT_PARAM, String.valueOf(entry.getValue()));
+				parameters.setProperty(TableGenerator.OPT_PARAM, OptimizerFactory.StandardOptimizerDescriptor.POOLED.getExternalName());
+				if (persistentClass.getTable().getCatalog() != null)
+					parameters.setProperty(PersistentIdentifierGenerator.CATALOG, persistentClass.getTable().getCatalog());
+				
+				SimpleValue identifier = (SimpleValue) persistentClass.getIdentifier();
+				identifier.setIdentifierGeneratorStrategy(TableGenerator.class.getName());
+				identifier.setIdentifierGeneratorProperties(parameters);
+			}
+		}
+		
 		/** 
 		 * Build a SessionFactory by your own configuration 
+		 * @throws RuntimeException if the name was built or is being built, see {@link #build()}
 		 * @see SessionFactoryBuilder#build()
 		 */
 		public SessionFactory build(Configuration configuration){
-			sessionFactory = configuration.buildSessionFactory(new ServiceRegistryBuilder().applySettings(configuration.getProperties()).buildServiceRegistry());
-			return sessionFactory;
+			// reserve the name, so that concurrent builders of the same name do not build it twice and other names are built in parallel
+			if (reservedNames.putIfAbsent(name, Boolean.TRUE) != null) throw alreadyBuilt();
+			boolean built = false;
+			try {
+				this.doConfigurePooledIdentifiers(configuration);
+				final ServiceRegistry serviceRegistry = new ServiceRegistryBuilder().applySettings(configuration.getProperties()).buildServiceRegistry();
+				final SessionFactory sessionFactory;
+				try {
+					sessionFactory = configuration.buildSessionFactory(serviceRegistry);
+				} catch (RuntimeException e) {
+					ServiceRegistryBuilder.destroy(serviceRegistry);
+					throw e;
+				}
+				
+				final int searchCacheEntries = ConfigurationHelper.getInt(SearchResultCache.MAX_ENTRIES, configuration.getProperties(), 0);
+				if (searchCacheEntries > 0)
+					SearchResultCache.register(sessionFactory, searchCacheEntries, 
+							ConfigurationHelper.getInt(SearchResultCache.MAX_RESULT_SIZE, configuration.getProperties(), SearchResultCache.DEFAULT_MAX_RESULT_SIZE));
+				
+				if (ConfigurationHelper.getBoolean(ControllerMetrics.ENABLED, configuration.getProperties(), false))
+					ControllerMetrics.register(sessionFactory, name, ConfigurationHelper.getInt(ControllerMetrics.LOG_INTERVAL, configuration.getProperties(), 0));
+				
+				serviceRegistries.put(name, serviceRegistry);
+				sessionFactories.put(name, sessionFactory);
+				built = true;
+				return sessionFactory;
+			} finally {
+				if (!built) reservedNames.remove(name);
+			}
 		}
 	}
 	
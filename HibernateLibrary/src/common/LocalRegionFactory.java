@@ -0,0 +1,647 @@
+package common;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.Region;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cache.spi.TimestampsRegion;
+import org.hibernate.cache.spi.TransactionalDataRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.cfg.Settings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+/**
+ * @definition
+ * In-JVM second-level cache for hibernate, no external cache provider is required. <br/>
+ * Each region is a segmented LRU map with maximum number of entries and time to live, read-only, read-write and nonstrict-read-write strategies are supported. <br/>
+ * It is enabled by {@link HibernateUtil.SessionFactoryBuilder#enableSecondLevelCache(boolean)},
+ * and regions are configured by {@link HibernateUtil.SessionFactoryBuilder#setCacheRegion(String, int, int)} or by properties:
+ * <PRE>
+ * {@code
+ * <property name="common.cache.default.max_entries">10000</property>
+ * <property name="common.cache.region.model.Role.ttl">3600</property>
+ * }
+ * </PRE>
+ * Hit, miss and eviction statistics of each region are provided by {@link #getStatistics()}, see {@link #of(SessionFactory)}.
+ */
+public class LocalRegionFactory implements RegionFactory {
+	private static final long serialVersionUID = 1L;
+
+	/** Default maximum number of entries per region, 0 for unbounded, default 10000 */
+	public static final String DEFAULT_MAX_ENTRIES = "common.cache.default.max_entries";
+	/** Default seconds to live of entries, 0 for no expiration, default 0 */
+	public static final String DEFAULT_TTL = "common.cache.default.ttl";
+	/** Prefix of region properties, such as 'common.cache.region.model.Role.max_entries' */
+	public static final String REGION_PREFIX = "common.cache.region.";
+	public static final String MAX_ENTRIES_SUFFIX = ".max_entries";
+	public static final String TTL_SUFFIX = ".ttl";
+
+	/** Timestamps are milliseconds shifted by 12 bits, so that 4096 unique timestamps can be generated per millisecond */
+	private static final int TIMESTAMP_SHIFT = 12;
+	/** Timeout of soft locks, 60 seconds in timestamp unit */
+	private static final int LOCK_TIMEOUT = 60000 << TIMESTAMP_SHIFT;
+	private static final AtomicLong lastTimestamp = new AtomicLong();
+
+	/** Get the region factory of the SessionFactory, null if the second-level cache is provided by others */
+	public static LocalRegionFactory of(SessionFactory sessionFactory){
+		RegionFactory regionFactory = ((SessionFactoryImplementor) sessionFactory).getSettings().getRegionFactory();
+		return regionFactory instanceof LocalRegionFactory ? (LocalRegionFactory) regionFactory : null;
+	}
+
+
+
+	private Properties properties = new Properties();
+	/** Map{@literal<Region name, Region>} */
+	private final ConcurrentMap<String, LocalRegion> regions = new ConcurrentHashMap<String, LocalRegion>();
+
+	public LocalRegionFactory(){
+	}
+	/** Hibernate instantiates the region factory by this constructor if it exists */
+	public LocalRegionFactory(Properties properties){
+		this.properties = properties;
+	}
+
+	@Override
+	public void start(Settings settings, Properties properties) throws CacheException {
+		this.properties = properties;
+	}
+
+	@Override
+	public void stop() {
+		for (LocalRegion region : regions.values())
+			region.destroy();
+		regions.clear();
+	}
+
+	@Override
+	public boolean isMinimalPutsEnabledByDefault() {
+		return false;
+	}
+
+	@Override
+	public AccessType getDefaultAccessType() {
+		return AccessType.READ_WRITE;
+	}
+
+	@Override
+	public long nextTimestamp() {
+		return LocalRegionFactory.next();
+	}
+	/** Unique and increasing timestamp */
+	static long next(){
+		while (true) {
+			final long last = lastTimestamp.get();
+			final long next = Math.max(last + 1, System.currentTimeMillis() << TIMESTAMP_SHIFT);
+			if (lastTimestamp.compareAndSet(last, next)) return next;
+		}
+	}
+
+	@Override
+	public EntityRegion buildEntityRegion(String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+		return register(new LocalEntityRegion(regionName, maxEntries(regionName), ttl(regionName), metadata));
+	}
+
+	@Override
+	public CollectionRegion buildCollectionRegion(String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+		return register(new LocalCollectionRegion(regionName, maxEntries(regionName), ttl(regionName), metadata));
+	}
+
+	@Override
+	public NaturalIdRegion buildNaturalIdRegion(String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+		throw new CacheException("Natural id caching is not supported by " + getClass().getName() + ", region: " + regionName);
+	}
+
+	@Override
+	public QueryResultsRegion buildQueryResultsRegion(String regionName, Properties properties) throws CacheException {
+		return register(new LocalGeneralDataRegion(regionName, maxEntries(regionName), ttl(regionName)));
+	}
+
+	@Override
+	public TimestampsRegion buildTimestampsRegion(String regionName, Properties properties) throws CacheException {
+		// timestamps must not be evicted, otherwise stale query results are considered up to date
+		return register(new LocalGeneralDataRegion(regionName, 0, 0));
+	}
+
+	private <R extends LocalRegion> R register(R region){
+		regions.put(region.getName(), region);
+		return region;
+	}
+	private int maxEntries(String regionName){
+		String defaultValue = properties.getProperty(DEFAULT_MAX_ENTRIES, "10000");
+		return Integer.parseInt(properties.getProperty(REGION_PREFIX + regionName + MAX_ENTRIES_SUFFIX, defaultValue).trim());
+	}
+	private int ttl(String regionName){
+		String defaultValue = properties.getProperty(DEFAULT_TTL, "0");
+		return Integer.parseInt(properties.getProperty(REGION_PREFIX + regionName + TTL_SUFFIX, defaultValue).trim());
+	}
+
+	/** Map{@literal<Region name, Statistics snapshot>} of all regions */
+	public Map<String, RegionStatistics> getStatistics(){
+		final Map<String, RegionStatistics> statistics = new HashMap<String, RegionStatistics>();
+		for (LocalRegion region : regions.values())
+			statistics.put(region.getName(), region.getStatistics());
+		return statistics;
+	}
+
+	/** Evict all entries of all regions */
+	public void evictAll(){
+		for (LocalRegion region : regions.values())
+			region.clear();
+	}
+
+
+
+//	INNER CLASS		\\
+	public static class RegionStatistics{
+		private final String name;
+		private final long size;
+		private final long hits;
+		private final long misses;
+		private final long puts;
+		private final long evictions;
+		private final long expirations;
+
+		private RegionStatistics(String name, long size, long hits, long misses, long puts, long evictions, long expirations){
+			this.name = name;
+			this.size = size;
+			this.hits = hits;
+			this.misses = misses;
+			this.puts = puts;
+			this.evictions = evictions;
+			this.expirations = expirations;
+		}
+		public String getName() {
+			return name;
+		}
+		public long getSize() {
+			return size;
+		}
+		public long getHits() {
+			return hits;
+		}
+		public long getMisses() {
+			return misses;
+		}
+		/** Hits / (hits + misses), 0 if the region was never read */
+		public double getHitRatio() {
+			return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+		}
+		public long getPuts() {
+			return puts;
+		}
+		/** Number of entries which was removed because the region is full */
+		public long getEvictions() {
+			return evictions;
+		}
+		/** Number of entries which was removed because time to live was exceeded */
+		public long getExpirations() {
+			return expirations;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Region %s\tsize:%d\thits:%d\tmisses:%d\thitRatio:%.2f\tputs:%d\tevictions:%d\texpirations:%d",
+					name, size, hits, misses, getHitRatio(), puts, evictions, expirations);
+		}
+	}
+
+	/**
+	 * Region which stores entries in LRU maps, the keys are spread over segments by their hash so that readers of different keys
+	 * do not wait for each other. <br/>
+	 * Each segment evicts its least recently used entry when it holds maxEntries / segments entries,
+	 * so the region holds at most maxEntries entries and the eviction order is LRU per segment.
+	 * Operations of a key are synchronized on its segment, see {@link #segmentOf(Object)}.
+	 */
+	static abstract class LocalRegion implements Region{
+		/** Maximum number of segments, a power of two */
+		private static final int SEGMENTS = 16;
+		/** Minimum entries of a segment, small regions have less segments so that LRU is not too approximate */
+		private static final int MIN_SEGMENT_ENTRIES = 16;
+
+		private final String name;
+		private final Segment[] segments;
+
+		LocalRegion(String name, int maxEntries, int ttlSeconds){
+			this.name = name;
+			int count = SEGMENTS;
+			while (count > 1 && maxEntries > 0 && maxEntries / count < MIN_SEGMENT_ENTRIES) count >>= 1;
+			this.segments = new Segment[count];
+			for (int i = 0; i < count; i++)
+				segments[i] = new Segment(maxEntries <= 0 ? 0 : Math.max(1, maxEntries / count), ttlSeconds * 1000L);
+		}
+
+		/** Segment of the key, it is the monitor of compound operations on the key */
+		Object segmentOf(Object key){
+			int hash = key.hashCode();
+			hash ^= (hash >>> 16);
+			return segments[hash & (segments.length - 1)];
+		}
+		private Segment segment(Object key){
+			return (Segment) segmentOf(key);
+		}
+
+		/** Get the value, null if it does not exist or it was expired. Hit and miss are counted. */
+		Object read(Object key){
+			return segment(key).read(key);
+		}
+		/** Same as {@link #read(Object)} but hit and miss are not counted */
+		Object peek(Object key){
+			return segment(key).peek(key);
+		}
+		void write(Object key, Object value){
+			segment(key).write(key, value);
+		}
+		void remove(Object key){
+			segment(key).remove(key);
+		}
+		void clear(){
+			for (Segment segment : segments)
+				segment.clear();
+		}
+
+		RegionStatistics getStatistics(){
+			long size = 0, hits = 0, misses = 0, puts = 0, evictions = 0, expirations = 0;
+			for (Segment segment : segments) {
+				synchronized (segment) {
+					size += segment.entries.size();
+					hits += segment.hits;
+					misses += segment.misses;
+					puts += segment.puts;
+					evictions += segment.evictions;
+					expirations += segment.expirations;
+				}
+			}
+			return new RegionStatistics(name, size, hits, misses, puts, evictions, expirations);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+		@Override
+		public void destroy() throws CacheException {
+			clear();
+		}
+		@Override
+		public boolean contains(Object key) {
+			final Object value = peek(key);
+			return value != null && !(value instanceof Lock);
+		}
+		@Override
+		public long getSizeInMemory() {
+			return -1;
+		}
+		@Override
+		public long getElementCountInMemory() {
+			long count = 0;
+			for (Segment segment : segments) {
+				synchronized (segment) {
+					count += segment.entries.size();
+				}
+			}
+			return count;
+		}
+		@Override
+		public long getElementCountOnDisk() {
+			return 0;
+		}
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public Map toMap() {
+			final Map map = new HashMap();
+			for (Segment segment : segments) {
+				synchronized (segment) {
+					for (Iterator<Map.Entry<Object, Item>> iterator = segment.entries.entrySet().iterator(); iterator.hasNext();) {
+						Map.Entry<Object, Item> entry = iterator.next();
+						if (!(entry.getValue().value instanceof Lock)) map.put(entry.getKey(), entry.getValue().value);
+					}
+				}
+			}
+			return map;
+		}
+		@Override
+		public long nextTimestamp() {
+			return LocalRegionFactory.next();
+		}
+		@Override
+		public int getTimeout() {
+			return LOCK_TIMEOUT;
+		}
+	}
+
+	/** LRU map of a region segment, all operations are synchronized on the segment */
+	private static class Segment{
+		private final long ttlMillis;
+		private final Map<Object, Item> entries;
+
+		private long hits, misses, puts, evictions, expirations;
+
+		Segment(final int maxEntries, long ttlMillis){
+			this.ttlMillis = ttlMillis;
+			this.entries = new LinkedHashMap<Object, Item>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Object, Item> eldest) {
+					if (maxEntries <= 0 || size() <= maxEntries) return false;
+					evictions++;
+					return true;
+				}
+			};
+		}
+
+		synchronized Object read(Object key){
+			final Object value = peek(key);
+			if (value == null || value instanceof Lock) misses++;
+			else hits++;
+			return value;
+		}
+		synchronized Object peek(Object key){
+			final Item entry = entries.get(key);
+			if (entry == null) return null;
+			if (entry.expiresAt != 0 && entry.expiresAt < System.currentTimeMillis()) {
+				entries.remove(key);
+				expirations++;
+				return null;
+			}
+			return entry.value;
+		}
+		synchronized void write(Object key, Object value){
+			// soft locks do not expire by time to live, they have their own timeout
+			final long expiresAt = ttlMillis > 0 && !(value instanceof Lock) ? System.currentTimeMillis() + ttlMillis : 0;
+			entries.put(key, new Item(value, expiresAt));
+			if (!(value instanceof Lock)) puts++;
+		}
+		synchronized void remove(Object key){
+			entries.remove(key);
+		}
+		synchronized void clear(){
+			entries.clear();
+		}
+	}
+
+	private static class Item{
+		final Object value;
+		/** System time in milliseconds, 0 for no expiration */
+		final long expiresAt;
+		Item(Object value, long expiresAt){
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Soft lock of read-write strategy, readers miss the item while it is locked. <br/>
+	 * The lock stays in the region after it is unlocked, so that values loaded by transactions which started before the unlock,
+	 * which may be stale, are not put, see {@link #isWriteable(long)}.
+	 */
+	private static class Lock implements SoftLock{
+		final long timeout;
+		/** Number of transactions which lock the item */
+		int concurrent = 1;
+		/** Whether other transactions locked the item meanwhile, their values are not put then */
+		boolean contended;
+		/** Timestamp of the unlock, 0 while it is locked */
+		long unlockTimestamp;
+		Lock(long timeout){
+			this.timeout = timeout;
+		}
+		boolean isLocked(){
+			return concurrent > 0;
+		}
+		void unlock(){
+			if (--concurrent <= 0) {
+				concurrent = 0;
+				unlockTimestamp = LocalRegionFactory.next();
+			}
+		}
+		/** Whether a value loaded by the transaction which started at the timestamp can replace the lock */
+		boolean isWriteable(long txTimestamp){
+			if (txTimestamp > timeout) return true;								// the locking transaction was lost
+			return !isLocked() && txTimestamp > unlockTimestamp;
+		}
+	}
+
+	static class LocalGeneralDataRegion extends LocalRegion implements QueryResultsRegion, TimestampsRegion{
+		LocalGeneralDataRegion(String name, int maxEntries, int ttlSeconds){
+			super(name, maxEntries, ttlSeconds);
+		}
+		@Override
+		public Object get(Object key) throws CacheException {
+			return read(key);
+		}
+		@Override
+		public void put(Object key, Object value) throws CacheException {
+			write(key, value);
+		}
+		@Override
+		public void evict(Object key) throws CacheException {
+			remove(key);
+		}
+		@Override
+		public void evictAll() throws CacheException {
+			clear();
+		}
+	}
+
+	static abstract class LocalTransactionalRegion extends LocalRegion implements TransactionalDataRegion{
+		private final CacheDataDescription metadata;
+		LocalTransactionalRegion(String name, int maxEntries, int ttlSeconds, CacheDataDescription metadata){
+			super(name, maxEntries, ttlSeconds);
+			this.metadata = metadata;
+		}
+		@Override
+		public boolean isTransactionAware() {
+			return false;
+		}
+		@Override
+		public CacheDataDescription getCacheDataDescription() {
+			return metadata;
+		}
+	}
+
+	static class LocalEntityRegion extends LocalTransactionalRegion implements EntityRegion{
+		LocalEntityRegion(String name, int maxEntries, int ttlSeconds, CacheDataDescription metadata){
+			super(name, maxEntries, ttlSeconds, metadata);
+		}
+		@Override
+		public EntityRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+			return new EntityAccess(this, accessType);
+		}
+	}
+
+	static class LocalCollectionRegion extends LocalTransactionalRegion implements CollectionRegion{
+		LocalCollectionRegion(String name, int maxEntries, int ttlSeconds, CacheDataDescription metadata){
+			super(name, maxEntries, ttlSeconds, metadata);
+		}
+		@Override
+		public CollectionRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+			return new CollectionAccess(this, accessType);
+		}
+	}
+
+	/**
+	 * Access strategy of entity and collection regions. <br/>
+	 * READ_ONLY: updates are not allowed, they throw UnsupportedOperationException. <br/>
+	 * READ_WRITE: items are soft locked while they are updated, the new value is put after the transaction is completed,
+	 * values loaded by transactions which started before the unlock are not put. <br/>
+	 * NONSTRICT_READ_WRITE: items are evicted after they are updated, without soft locks.
+	 */
+	static abstract class LocalAccessStrategy{
+		final LocalRegion region;
+		final AccessType accessType;
+
+		LocalAccessStrategy(LocalRegion region, AccessType accessType){
+			if (accessType == AccessType.TRANSACTIONAL)
+				throw new CacheException("Transactional access is not supported, region: " + region.getName());
+			this.region = region;
+			this.accessType = accessType;
+		}
+
+		public Object get(Object key, long txTimestamp) throws CacheException {
+			synchronized (region.segmentOf(key)) {
+				final Object value = region.read(key);
+				return value instanceof Lock ? null : value;					// a lock of a lost transaction is replaced by putFromLoad
+			}
+		}
+		public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version) throws CacheException {
+			return putFromLoad(key, value, txTimestamp, version, false);
+		}
+		public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version, boolean minimalPutOverride) throws CacheException {
+			synchronized (region.segmentOf(key)) {
+				final Object existing = region.peek(key);
+				if (existing instanceof Lock && !((Lock) existing).isWriteable(txTimestamp)) return false;	// loaded before the update was completed, it may be stale
+				if (existing != null && !(existing instanceof Lock)
+						&& (accessType == AccessType.READ_WRITE || minimalPutOverride)) return false;	// read-write values are put by afterUpdate, a load may be older
+				region.write(key, value);
+				return true;
+			}
+		}
+		public SoftLock lockItem(Object key, Object version) throws CacheException {
+			if (accessType != AccessType.READ_WRITE) return null;
+			synchronized (region.segmentOf(key)) {
+				final Object existing = region.peek(key);
+				final long timestamp = LocalRegionFactory.next();
+				if (existing instanceof Lock && ((Lock) existing).isLocked() && ((Lock) existing).timeout > timestamp) {
+					((Lock) existing).concurrent++;
+					((Lock) existing).contended = true;
+					return (Lock) existing;
+				}
+				final Lock lock = new Lock(timestamp + LOCK_TIMEOUT);
+				region.write(key, lock);
+				return lock;
+			}
+		}
+		public SoftLock lockRegion() throws CacheException {
+			region.clear();
+			return null;
+		}
+		public void unlockItem(Object key, SoftLock lock) throws CacheException {
+			if (accessType != AccessType.READ_WRITE) {
+				region.remove(key);
+				return;
+			}
+			synchronized (region.segmentOf(key)) {
+				final Object existing = region.peek(key);
+				if (existing == lock) {
+					((Lock) lock).unlock();
+				} else if (!(existing instanceof Lock) || !((Lock) existing).isLocked()) {
+					// the lock was evicted or replaced after it was timed out, keep an unlocked one so that stale loads are still rejected
+					final Lock expired = new Lock(LocalRegionFactory.next() + LOCK_TIMEOUT);
+					expired.unlock();
+					region.write(key, expired);
+				}
+			}
+		}
+		public void unlockRegion(SoftLock lock) throws CacheException {
+			region.clear();
+		}
+		public void remove(Object key) throws CacheException {
+			if (accessType == AccessType.READ_WRITE) return;				// the item is locked, it is replaced by the unlocked lock by unlockItem
+			region.remove(key);
+		}
+		public void removeAll() throws CacheException {
+			region.clear();
+		}
+		public void evict(Object key) throws CacheException {
+			region.remove(key);
+		}
+		public void evictAll() throws CacheException {
+			region.clear();
+		}
+	}
+
+	static class EntityAccess extends LocalAccessStrategy implements EntityRegionAccessStrategy{
+		EntityAccess(LocalEntityRegion region, AccessType accessType){
+			super(region, accessType);
+		}
+		@Override
+		public EntityRegion getRegion() {
+			return (EntityRegion) region;
+		}
+		@Override
+		public boolean insert(Object key, Object value, Object version) throws CacheException {
+			return false;															// put after the transaction is completed
+		}
+		@Override
+		public boolean afterInsert(Object key, Object value, Object version) throws CacheException {
+			if (accessType == AccessType.NONSTRICT_READ_WRITE) return false;
+			synchronized (region.segmentOf(key)) {
+				if (region.peek(key) != null) return false;
+				region.write(key, value);
+				return true;
+			}
+		}
+		@Override
+		public boolean update(Object key, Object value, Object currentVersion, Object previousVersion) throws CacheException {
+			if (accessType == AccessType.READ_ONLY)
+				throw new UnsupportedOperationException("Can't write to a readonly object, region: " + region.getName());
+			if (accessType == AccessType.NONSTRICT_READ_WRITE) region.remove(key);
+			return false;
+		}
+		@Override
+		public boolean afterUpdate(Object key, Object value, Object currentVersion, Object previousVersion, SoftLock lock) throws CacheException {
+			if (accessType == AccessType.READ_ONLY)
+				throw new UnsupportedOperationException("Can't write to a readonly object, region: " + region.getName());
+			if (accessType != AccessType.READ_WRITE) {
+				region.remove(key);
+				return false;
+			}
+			synchronized (region.segmentOf(key)) {
+				final Object existing = region.peek(key);
+				if (existing == lock && !((Lock) lock).contended) {				// no other transaction updated it meanwhile
+					region.write(key, value);
+					return true;
+				}
+				unlockItem(key, lock);
+				return false;
+			}
+		}
+	}
+
+	static class CollectionAccess extends LocalAccessStrategy implements CollectionRegionAccessStrategy{
+		CollectionAccess(LocalCollectionRegion region, AccessType accessType){
+			super(region, accessType);
+		}
+		@Override
+		public CollectionRegion getRegion() {
+			return (CollectionRegion) region;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package common;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+import org.hibernate.stat.internal.ConcurrentStatisticsImpl;
+import org.hibernate.stat.spi.StatisticsFactory;
+import org.hibernate.stat.spi.StatisticsImplementor;
+
+/**
+ * @definition
+ * Hibernate's Statistics which also counts statements, entity loads and fetches, collection fetches and query rows per thread,
+ * so that {@link ControllerMetrics} can tell the work of one controller call while other threads use the same SessionFactory. <br/>
+ * The counters are per SessionFactory as well, a call which uses two SessionFactories on one thread is not charged with the work of the other one. <br/>
+ * The SessionFactory's totals are the same as the default Statistics. Hibernate calls it only if hibernate.generate_statistics is true.
+ * It is set by {@link HibernateUtil.SessionFactoryBuilder#enableControllerMetrics(int)}, or by hibernate.cfg.xml:
+ * <PRE>
+ * {@literal <property name="hibernate.stats.factory">common.MeteredStatistics$Factory</property>}
+ * </PRE>
+ */
+public class MeteredStatistics extends ConcurrentStatisticsImpl {
+	private static final long serialVersionUID = 1L;
+
+	/** Get the Statistics of the SessionFactory, null if it is not hibernate.stats.factory */
+	public static MeteredStatistics of(SessionFactory sessionFactory){
+		final Statistics statistics = sessionFactory.getStatistics();
+		return statistics instanceof MeteredStatistics ? (MeteredStatistics) statistics : null;
+	}
+
+	/** Counters of the current thread for this SessionFactory, they only increase */
+	private final ThreadLocal<Counters> counters = new ThreadLocal<Counters>() {
+		@Override
+		protected Counters initialValue() {
+			return new Counters();
+		}
+	};
+
+	public MeteredStatistics(SessionFactoryImplementor sessionFactory){
+		super(sessionFactory);
+	}
+
+	/** Counters of the current thread for this SessionFactory, read them before and after a call and take the difference */
+	public Counters current(){
+		return counters.get();
+	}
+
+	@Override
+	public void prepareStatement() {
+		counters.get().statements++;
+		super.prepareStatement();
+	}
+	@Override
+	public void loadEntity(String entityName) {
+		counters.get().entityLoads++;
+		super.loadEntity(entityName);
+	}
+	@Override
+	public void fetchEntity(String entityName) {
+		counters.get().entityFetches++;
+		super.fetchEntity(entityName);
+	}
+	@Override
+	public void fetchCollection(String role) {
+		counters.get().collectionFetches++;
+		super.fetchCollection(role);
+	}
+	@Override
+	public void queryExecuted(String hql, int rows, long time) {
+		counters.get().rows += rows;
+		super.queryExecuted(hql, rows, time);
+	}
+
+
+
+//	INNER CLASS		\\
+	/** Counters of one thread, only the owner thread reads and writes them */
+	public static class Counters{
+		long statements, entityLoads, entityFetches, collectionFetches, rows;
+
+		/** JDBC statements which were prepared */
+		public long getStatements() {
+			return statements;
+		}
+		/** Entities which were loaded, by get, load or queries */
+		public long getEntityLoads() {
+			return entityLoads;
+		}
+		/** Entities which were fetched by a separate statement, such as lazy proxies */
+		public long getEntityFetches() {
+			return entityFetches;
+		}
+		/** Collections which were fetched by a separate statement, such as lazy collections */
+		public long getCollectionFetches() {
+			return collectionFetches;
+		}
+		/** Rows which were returned by HQL and Criteria queries */
+		public long getRows() {
+			return rows;
+		}
+	}
+
+	/** Value of hibernate.stats.factory, it is instantiated by Hibernate */
+	public static class Factory implements StatisticsFactory{
+		@Override
+		public StatisticsImplementor buildStatistics(SessionFactoryImplementor sessionFactory) {
+			return new MeteredStatistics(sessionFactory);
+		}
+	}
+}
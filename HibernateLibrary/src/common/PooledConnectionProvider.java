@@ -0,0 +1,416 @@
+package common;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.jdbc.connections.internal.ConnectionProviderInitiator;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+import org.jboss.logging.Logger;
+
+/**
+ * @definition
+ * JDBC connection pool for hibernate, use it instead of the built-in DriverManager connection provider which is not for production. <br/>
+ * It is configured by {@link HibernateUtil.SessionFactoryBuilder#setConnectionPool(int, int)}, or by the properties of this class in hibernate.cfg.xml:
+ * <PRE>
+ * {@code
+ * <property name="hibernate.connection.provider_class">common.PooledConnectionProvider</property>
+ * <property name="common.pool.max_size">20</property>
+ * }
+ * </PRE>
+ * Returned connections are rolled back and reset to the configured autocommit, isolation and read-write state, 
+ * so a connection never leaks a transaction or a Session setting to the next user. Idle connections above the minimum size are closed after the idle timeout. <br/>
+ * Live metrics are provided by {@link #getMetrics()}, see {@link #of(SessionFactory)}.
+ */
+public class PooledConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+	private static final long serialVersionUID = 1L;
+	private static final Logger log = Logger.getLogger(PooledConnectionProvider.class);
+
+	/** Number of connections opened at start, default 1 */
+	public static final String MIN_SIZE = "common.pool.min_size";
+	/** Maximum number of connections, default 10 */
+	public static final String MAX_SIZE = "common.pool.max_size";
+	/** Milliseconds to wait for a free connection before SQLException is thrown, default 30000 */
+	public static final String ACQUIRE_TIMEOUT = "common.pool.acquire_timeout";
+	/** Seconds an idle connection is kept when there are more than the minimum size, 0 to keep them, default 600 */
+	public static final String IDLE_TIMEOUT = "common.pool.idle_timeout";
+	/** Seconds for {@link Connection#isValid(int)} when an idle connection is reused, 0 to disable validation, default 0 */
+	public static final String VALIDATION_TIMEOUT = "common.pool.validation_timeout";
+	/** Number of prepared statements cached by the driver per connection, 0 to disable, default 0. Only MySQL Connector/J is supported. */
+	public static final String STATEMENT_CACHE_SIZE = "common.pool.statement_cache_size";
+
+	/** Upper bounds of wait time histogram buckets in milliseconds, the last bucket has no upper bound */
+	private static final long[] WAIT_BUCKETS = { 1, 5, 10, 50, 100, 500, 1000, 5000 };
+	/** Window of acquisitions per second */
+	private static final int RATE_WINDOW_SECONDS = 10;
+
+	/** Get the pool of the SessionFactory, null if it uses another connection provider */
+	public static PooledConnectionProvider of(SessionFactory sessionFactory){
+		ConnectionProvider provider = ((SessionFactoryImplementor) sessionFactory).getServiceRegistry().getService(ConnectionProvider.class);
+		return provider instanceof PooledConnectionProvider ? (PooledConnectionProvider) provider : null;
+	}
+
+
+
+	private String url;
+	private Properties connectionProperties;
+	private boolean autocommit;
+	private Integer isolation;
+	private int minSize;
+	private int maxSize;
+	private long acquireTimeout;
+	private long idleTimeoutMillis;
+	private int validationTimeout;
+
+	/** Idle connections, most recently used first */
+	private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<IdleConnection>();
+	/** One permit per connection which can be checked out */
+	private Semaphore permits;
+	private volatile boolean stopped;
+
+	private final AtomicInteger active = new AtomicInteger();
+	/** Connections which are opened and not closed, checked out or idle */
+	private final AtomicInteger open = new AtomicInteger();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong acquisitions = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong invalidated = new AtomicLong();
+	private final AtomicLongArray waitHistogram = new AtomicLongArray(WAIT_BUCKETS.length + 1);
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	/** Acquisitions of the recent seconds, indexed by second % RATE_WINDOW_SECONDS */
+	private final long[] rateBuckets = new long[RATE_WINDOW_SECONDS];
+	private final long[] rateBucketSeconds = new long[RATE_WINDOW_SECONDS];
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public void configure(Map configValues) {
+		this.url = (String) configValues.get(Environment.URL);
+		if (url == null)
+			throw new HibernateException("JDBC URL was not specified by property " + Environment.URL);
+
+		final String driverClassName = (String) configValues.get(Environment.DRIVER);
+		if (driverClassName != null) {
+			try {
+				Class.forName(driverClassName, true, Thread.currentThread().getContextClassLoader());
+			} catch (ClassNotFoundException e) {
+				throw new HibernateException("JDBC Driver class not found: " + driverClassName, e);
+			}
+		}
+
+		this.connectionProperties = ConnectionProviderInitiator.getConnectionProperties(configValues);
+		this.autocommit = ConfigurationHelper.getBoolean(Environment.AUTOCOMMIT, configValues);
+		this.isolation = ConfigurationHelper.getInteger(Environment.ISOLATION, configValues);
+		this.minSize = ConfigurationHelper.getInt(MIN_SIZE, configValues, 1);
+		this.maxSize = ConfigurationHelper.getInt(MAX_SIZE, configValues, 10);
+		this.acquireTimeout = ConfigurationHelper.getInt(ACQUIRE_TIMEOUT, configValues, 30000);
+		this.idleTimeoutMillis = ConfigurationHelper.getInt(IDLE_TIMEOUT, configValues, 600) * 1000L;
+		this.validationTimeout = ConfigurationHelper.getInt(VALIDATION_TIMEOUT, configValues, 0);
+		if (minSize < 0 || maxSize <= 0 || minSize > maxSize)
+			throw new HibernateException("Invalid pool size, min:" + minSize + " max:" + maxSize);
+
+		// statement cache is done by the driver
+		final int statementCacheSize = ConfigurationHelper.getInt(STATEMENT_CACHE_SIZE, configValues, 0);
+		if (statementCacheSize > 0) {
+			if (url.startsWith("jdbc:mysql:")) {
+				connectionProperties.setProperty("cachePrepStmts", "true");
+				connectionProperties.setProperty("prepStmtCacheSize", String.valueOf(statementCacheSize));
+			} else {
+				log.warnf("%s=%d is ignored, the statement cache is supported for MySQL Connector/J only, url: %s", STATEMENT_CACHE_SIZE, statementCacheSize, url);
+			}
+		}
+
+		this.permits = new Semaphore(maxSize, true);
+		try {
+			for (int i = 0; i < minSize; i++)
+				idle.offerLast(new IdleConnection(createConnection()));
+		} catch (SQLException e) {
+			throw new HibernateException("Could not open initial pooled connections", e);
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (stopped) throw new SQLException("Connection pool was stopped");
+
+		final long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+				timeouts.incrementAndGet();
+				throw new SQLException("Timeout waiting for a connection after " + acquireTimeout + "ms, pool max size is " + maxSize);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a connection");
+		}
+		recordAcquisition(System.nanoTime() - start);
+
+		try {
+			Connection connection = null;
+			IdleConnection idleConnection;
+			while ((idleConnection = idle.pollFirst()) != null) {
+				if (validationTimeout <= 0 || idleConnection.connection.isValid(validationTimeout)) {
+					connection = idleConnection.connection;
+					break;
+				}
+				invalidated.incrementAndGet();
+				closeQuietly(idleConnection.connection);
+			}
+			if (connection == null) connection = createConnection();
+
+			active.incrementAndGet();
+			return connection;
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public void closeConnection(Connection connection) throws SQLException {
+		active.decrementAndGet();
+		try {
+			if (stopped || connection.isClosed() || !reset(connection)) {
+				closeQuietly(connection);
+			} else {
+				idle.offerFirst(new IdleConnection(connection));
+				if (stopped) closeIdle();						// stopped meanwhile, it would never be closed otherwise
+				else closeExpiredIdle();
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Roll back the open transaction and restore the configured state of a returned connection
+	 * @return false if the connection cannot be reset, it should be closed
+	 */
+	private boolean reset(Connection connection){
+		try {
+			if (!connection.getAutoCommit()) connection.rollback();		// the transaction was not completed by the user, such as an Error
+			if (connection.getAutoCommit() != autocommit) connection.setAutoCommit(autocommit);
+			if (connection.isReadOnly()) connection.setReadOnly(false);
+			if (isolation != null && connection.getTransactionIsolation() != isolation) connection.setTransactionIsolation(isolation);
+			connection.clearWarnings();
+			return true;
+		} catch (SQLException e) {
+			invalidated.incrementAndGet();
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/** Close the least recently used idle connections which exceed the idle timeout, the minimum size is kept */
+	private void closeExpiredIdle(){
+		if (idleTimeoutMillis <= 0) return;
+		final long expired = System.currentTimeMillis() - idleTimeoutMillis;
+		IdleConnection oldest;
+		while (idle.size() > minSize && (oldest = idle.peekLast()) != null && oldest.since < expired) {
+			if (idle.removeLastOccurrence(oldest))		// another thread may have taken it
+				closeQuietly(oldest.connection);
+		}
+	}
+
+	/** Close idle connections and connections which are returned afterwards, checked out connections are closed when they are returned */
+	@Override
+	public void stop() {
+		stopped = true;
+		closeIdle();
+	}
+	private void closeIdle(){
+		IdleConnection idleConnection;
+		while ((idleConnection = idle.pollFirst()) != null)
+			closeQuietly(idleConnection.connection);
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public boolean isUnwrappableAs(Class unwrapType) {
+		return ConnectionProvider.class.equals(unwrapType) || PooledConnectionProvider.class.isAssignableFrom(unwrapType);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(Class<T> unwrapType) {
+		if (isUnwrappableAs(unwrapType))
+			return (T) this;
+		throw new UnknownUnwrapTypeException(unwrapType);
+	}
+
+	private Connection createConnection() throws SQLException {
+		final Connection connection = DriverManager.getConnection(url, connectionProperties);
+		if (isolation != null) connection.setTransactionIsolation(isolation);
+		connection.setAutoCommit(autocommit);
+		created.incrementAndGet();
+		open.incrementAndGet();
+		return connection;
+	}
+
+	private void closeQuietly(Connection connection){
+		open.decrementAndGet();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void recordAcquisition(long waitNanos){
+		acquisitions.incrementAndGet();
+
+		final long waitMillis = waitNanos / 1000000L;
+		int bucket = 0;
+		while (bucket < WAIT_BUCKETS.length && waitMillis >= WAIT_BUCKETS[bucket]) bucket++;
+		waitHistogram.incrementAndGet(bucket);
+
+		long max;
+		while (waitNanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waitNanos));
+
+		final long second = System.currentTimeMillis() / 1000L;
+		final int index = (int) (second % RATE_WINDOW_SECONDS);
+		synchronized (rateBuckets) {
+			if (rateBucketSeconds[index] != second) {
+				rateBucketSeconds[index] = second;
+				rateBuckets[index] = 0;
+			}
+			rateBuckets[index]++;
+		}
+	}
+
+	/** Snapshot of the pool metrics */
+	public Metrics getMetrics(){
+		final long[] histogram = new long[waitHistogram.length()];
+		for (int i = 0; i < histogram.length; i++)
+			histogram[i] = waitHistogram.get(i);
+
+		// complete seconds of the window, the current second is not included
+		final long second = System.currentTimeMillis() / 1000L;
+		long recent = 0;
+		synchronized (rateBuckets) {
+			for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+				if (rateBucketSeconds[i] < second && rateBucketSeconds[i] >= second - RATE_WINDOW_SECONDS)
+					recent += rateBuckets[i];
+			}
+		}
+
+		return new Metrics(active.get(), idle.size(), open.get(), maxSize, created.get(), acquisitions.get(), timeouts.get(), invalidated.get(),
+				(double) recent / RATE_WINDOW_SECONDS, histogram, maxWaitNanos.get() / 1000000L);
+	}
+
+//	INNER CLASS		\\
+	/** Idle connection and the time it was returned */
+	private static class IdleConnection{
+		final Connection connection;
+		final long since;
+		IdleConnection(Connection connection){
+			this.connection = connection;
+			this.since = System.currentTimeMillis();
+		}
+	}
+
+	public static class Metrics{
+		private final int active;
+		private final int idle;
+		private final int open;
+		private final int maxSize;
+		private final long created;
+		private final long acquisitions;
+		private final long timeouts;
+		private final long invalidated;
+		private final double acquisitionsPerSecond;
+		private final long[] waitHistogram;
+		private final long maxWaitMillis;
+
+		private Metrics(int active, int idle, int open, int maxSize, long created, long acquisitions, long timeouts, long invalidated,
+				double acquisitionsPerSecond, long[] waitHistogram, long maxWaitMillis){
+			this.active = active;
+			this.idle = idle;
+			this.open = open;
+			this.maxSize = maxSize;
+			this.created = created;
+			this.acquisitions = acquisitions;
+			this.timeouts = timeouts;
+			this.invalidated = invalidated;
+			this.acquisitionsPerSecond = acquisitionsPerSecond;
+			this.waitHistogram = waitHistogram;
+			this.maxWaitMillis = maxWaitMillis;
+		}
+		/** Connections which are checked out */
+		public int getActive() {
+			return active;
+		}
+		public int getIdle() {
+			return idle;
+		}
+		/** Connections which are opened and not closed yet, 0 after the pool is stopped and all connections are returned */
+		public int getOpen() {
+			return open;
+		}
+		public int getMaxSize() {
+			return maxSize;
+		}
+		/** Number of connections opened since start */
+		public long getCreated() {
+			return created;
+		}
+		public long getAcquisitions() {
+			return acquisitions;
+		}
+		/** Number of acquisitions which exceed the acquire timeout */
+		public long getTimeouts() {
+			return timeouts;
+		}
+		/** Number of connections which failed validation or reset and were closed */
+		public long getInvalidated() {
+			return invalidated;
+		}
+		/** Average of the recent 10 seconds */
+		public double getAcquisitionsPerSecond() {
+			return acquisitionsPerSecond;
+		}
+		/** Upper bounds in milliseconds of {@link #getWaitHistogram()}, the last bucket has no upper bound */
+		public long[] getWaitBuckets() {
+			return WAIT_BUCKETS.clone();
+		}
+		/** Number of acquisitions per wait time bucket, see {@link #getWaitBuckets()} */
+		public long[] getWaitHistogram() {
+			return waitHistogram.clone();
+		}
+		public long getMaxWaitMillis() {
+			return maxWaitMillis;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder histogram = new StringBuilder();
+			for (int i = 0; i < waitHistogram.length; i++)
+				histogram.append(i < WAIT_BUCKETS.length ? "<" + WAIT_BUCKETS[i] + "ms:" : ">=" + WAIT_BUCKETS[WAIT_BUCKETS.length - 1] + "ms:").append(waitHistogram[i]).append(' ');
+			return String.format("Pool\tactive:%d\tidle:%d\topen:%d\tmax:%d\tcreated:%d\tacquisitions:%d (%.1f/s)\ttimeouts:%d\tinvalidated:%d\tmaxWait:%dms\twait:%s",
+					active, idle, open, maxSize, created, acquisitions, acquisitionsPerSecond, timeouts, invalidated, maxWaitMillis, histogram.toString().trim());
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+/**
+ * @definition
+ * Canonical parameterized HQL of {@link BaseController.Searcher} restrictions, per SessionFactory. <br/>
+ * A search is normalized to a shape, which is the entity and the sorted restricted properties with their operators,
+ * so searches of the same properties produce the same HQL and SQL regardless of the order they were set.
+ * IN-lists are padded to the next power of 2 by repeating the last value, so lists of 5 to 8 values share one shape. <br/>
+ * The same SQL lets Hibernate's query plan cache, the driver's statement cache (see {@link HibernateUtil.SessionFactoryBuilder#setStatementCacheSize(int)})
+ * and the database's statement cache reuse the prepared statement. The HQL of a shape is built once,
+ * and the least recently used shape is dropped when there are more than {@link #MAX_SHAPES}. <br/>
+ * {@link #getStatistics()} reports executions and reuses per shape, a reuse is an execution of a shape whose HQL was built before.
+ * It counts HQL reuse only, whether the prepared statement was reused is up to the statement caches of the driver and the database, see their own statistics.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * for (QueryShapeCache.ShapeStatistics shape : QueryShapeCache.of(sessionFactory).getStatistics())
+ * 	print(shape);
+ * // executions:120 reuses:119 reuse ratio:0.99	from model.Account e where e.username like :p0 escape '!'
+ * }
+ * </PRE>
+ */
+public class QueryShapeCache {
+
+	/** Maximum number of shapes per SessionFactory, property of hibernate.cfg.xml or SessionFactoryBuilder.setProperty */
+	public static final String MAX_SHAPES = "common.query_shapes.max_shapes";
+	public static final int DEFAULT_MAX_SHAPES = 256;
+
+	/** Map{@literal<SessionFactory, QueryShapeCache>} */
+	private static final ConcurrentMap<SessionFactory, QueryShapeCache> caches = new ConcurrentHashMap<SessionFactory, QueryShapeCache>();
+
+	/** Get the cache of the SessionFactory, it is created at the first call */
+	public static QueryShapeCache of(SessionFactory sessionFactory){
+		QueryShapeCache cache = caches.get(sessionFactory);
+		if (cache == null) {
+			final int maxShapes = ConfigurationHelper.getInt(MAX_SHAPES, ((SessionFactoryImplementor) sessionFactory).getProperties(), DEFAULT_MAX_SHAPES);
+			final QueryShapeCache created = new QueryShapeCache(maxShapes);
+			cache = caches.putIfAbsent(sessionFactory, created);
+			if (cache == null) cache = created;
+		}
+		return cache;
+	}
+
+	/** Drop the cache of the SessionFactory, call it when the SessionFactory is closed. */
+	public static void release(SessionFactory sessionFactory){
+		caches.remove(sessionFactory);
+	}
+
+	/** Number of values of an IN-list of the shape, the next power of 2 */
+	static int paddedSize(int size){
+		return size <= 1 ? size : Integer.highestOneBit(size - 1) << 1;
+	}
+
+
+
+	/** LRU map of Shape key to Shape, synchronized on the cache */
+	private final Map<String, Shape> shapes;
+	private long evictions;
+
+	private QueryShapeCache(final int maxShapes){
+		this.shapes = new LinkedHashMap<String, Shape>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+				if (size() <= maxShapes) return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Create the Query of the restrictions by the HQL of their shape, the parameters are bound
+	 * @param restrictions Map{@literal<Restriction name, value or SearchOperator>}, such as {username=ken, id.site=PREFIX [t]}
+	 */
+	public Query createQuery(Session session, Class<?> entityClass, Map<String, Object> restrictions){
+		final String[] names = restrictions.keySet().toArray(new String[restrictions.size()]);
+		Arrays.sort(names);
+
+		final StringBuilder key = new StringBuilder(entityClass.getName());
+		for (String name : names)
+			key.append('|').append(name).append(' ').append(tokenOf(restrictions.get(name)));
+
+		final Query query = session.createQuery(shapeOf(key.toString(), entityClass, names, restrictions).hql);
+		int parameter = 0;
+		for (String name : names)
+			parameter = bind(query, parameter, restrictions.get(name));
+		return query;
+	}
+
+	/** Get the shape and count the execution, the HQL is built if the shape is new */
+	private Shape shapeOf(String key, Class<?> entityClass, String[] names, Map<String, Object> restrictions){
+		synchronized (this) {
+			final Shape shape = shapes.get(key);
+			if (shape != null) {
+				shape.executions++;
+				shape.reuses++;
+				return shape;
+			}
+		}
+		final Shape created = new Shape(buildHql(entityClass, names, restrictions));
+		synchronized (this) {
+			final Shape shape = shapes.get(key);
+			if (shape != null) {		// built by another thread meanwhile
+				shape.executions++;
+				shape.reuses++;
+				return shape;
+			}
+			created.executions++;
+			shapes.put(key, created);
+			return created;
+		}
+	}
+
+	/** Operator of a restriction, different tokens are different shapes */
+	private static String tokenOf(Object value){
+		if (!(value instanceof SearchOperator)) return "=";
+		final SearchOperator operator = (SearchOperator) value;
+		switch (operator.getKind()) {
+		case PREFIX:
+			return "like";
+		case RANGE:
+			if (operator.getValues().get(0) == null) return "<=";
+			if (operator.getValues().get(1) == null) return ">=";
+			return "between";
+		case IN:
+			return "in" + paddedSize(operator.getValues().size());
+		default:
+			throw new RuntimeException("Unsupport search operator " + operator.getKind());
+		}
+	}
+
+	private static String buildHql(Class<?> entityClass, String[] names, Map<String, Object> restrictions){
+		final StringBuilder hql = new StringBuilder("from ").append(entityClass.getName()).append(" e");
+		int parameter = 0;
+		for (int i = 0; i < names.length; i++) {
+			hql.append(i == 0 ? " where " : " and ");
+			final String property = "e." + names[i];
+			final String token = tokenOf(restrictions.get(names[i]));
+			if (token.equals("like"))
+				hql.append(property).append(" like :p").append(parameter++).append(" escape '").append(SearchOperator.ESCAPE).append('\'');
+			else if (token.equals("between"))
+				hql.append(property).append(" between :p").append(parameter++).append(" and :p").append(parameter++);
+			else if (token.equals("in0"))
+				hql.append("1 = 0");		// 'in ()' is not valid SQL
+			else if (token.startsWith("in"))
+				hql.append(property).append(" in (:p").append(parameter++).append(')');
+			else
+				hql.append(property).append(' ').append(token).append(" :p").append(parameter++);
+		}
+		return hql.toString();
+	}
+
+	/** Bind the parameters of a restriction in the order of {@link #buildHql(Class, String[], Map)}, return the next parameter index */
+	private static int bind(Query query, int parameter, Object value){
+		if (!(value instanceof SearchOperator)) {
+			query.setParameter("p" + parameter, value);
+			return parameter + 1;
+		}
+		final List<Object> values = ((SearchOperator) value).getValues();
+		switch (((SearchOperator) value).getKind()) {
+		case PREFIX:
+			query.setParameter("p" + parameter, SearchOperator.escape((String) values.get(0)) + "%");
+			return parameter + 1;
+		case RANGE:
+			if (values.get(0) == null || values.get(1) == null) {
+				query.setParameter("p" + parameter, values.get(0) == null ? values.get(1) : values.get(0));
+				return parameter + 1;
+			}
+			query.setParameter("p" + parameter, values.get(0));
+			query.setParameter("p" + (parameter + 1), values.get(1));
+			return parameter + 2;
+		case IN:
+			if (values.isEmpty()) return parameter;
+			final List<Object> padded = new ArrayList<Object>(values);
+			while (padded.size() < paddedSize(values.size()))
+				padded.add(values.get(values.size() - 1));
+			query.setParameterList("p" + parameter, padded);
+			return parameter + 1;
+		default:
+			throw new RuntimeException("Unsupport search operator " + ((SearchOperator) value).getKind());
+		}
+	}
+
+	/** Remove all shapes, the statistics are reset */
+	public synchronized void clear(){
+		shapes.clear();
+		evictions = 0;
+	}
+
+	public synchronized int size(){
+		return shapes.size();
+	}
+	/** Number of shapes which were removed because the cache is full, a high number means the shapes are not bounded by the application */
+	public synchronized long getEvictions(){
+		return evictions;
+	}
+
+	/** Statistics of every shape, the most executed first */
+	public List<ShapeStatistics> getStatistics(){
+		final List<ShapeStatistics> statistics = new ArrayList<ShapeStatistics>();
+		synchronized (this) {
+			for (Shape shape : shapes.values())
+				statistics.add(new ShapeStatistics(shape.hql, shape.executions, shape.reuses));
+		}
+		Collections.sort(statistics, new Comparator<ShapeStatistics>() {
+			@Override
+			public int compare(ShapeStatistics o1, ShapeStatistics o2) {
+				return o1.executions == o2.executions ? 0 : o1.executions > o2.executions ? -1 : 1;
+			}
+		});
+		return statistics;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder("QueryShapeCache size:").append(size()).append("\tevictions:").append(getEvictions());
+		for (ShapeStatistics shape : getStatistics())
+			builder.append('\n').append(shape);
+		return builder.toString();
+	}
+
+
+
+//	INNER CLASS		\\
+	private static class Shape{
+		final String hql;
+		/** Guarded by the cache */
+		long executions, reuses;
+		Shape(String hql){
+			this.hql = hql;
+		}
+	}
+
+	public static class ShapeStatistics{
+		private final String hql;
+		private final long executions;
+		private final long reuses;
+
+		private ShapeStatistics(String hql, long executions, long reuses){
+			this.hql = hql;
+			this.executions = executions;
+			this.reuses = reuses;
+		}
+		public String getHql() {
+			return hql;
+		}
+		public long getExecutions() {
+			return executions;
+		}
+		/** Executions whose HQL was built before, it is not a count of prepared statements which were reused by the statement caches */
+		public long getReuses() {
+			return reuses;
+		}
+		/** Reuses / executions, 0 if it was never executed */
+		public double getReuseRatio() {
+			return executions == 0 ? 0 : (double) reuses / executions;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("executions:%d reuses:%d reuse ratio:%.2f\t%s", executions, reuses, getReuseRatio(), hql);
+		}
+	}
+}
@@ -0,0 +1,309 @@
+package common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jboss.logging.Logger;
+
+/**
+ * @definition
+ * Local disk cache of configuration resources which are loaded by http or https URLs, such as hibernate.cfg.xml of a config server. <br/>
+ * Contents are stored by their SHA-256 hash, and each URL has a small properties file of the content hash, ETag, Last-Modified and the time it was validated. <br/>
+ * {@link #resolve(URL)} returns the local copy immediately if it was validated within the max-stale window, and revalidates it in the background
+ * by a conditional request (If-None-Match, If-Modified-Since), so a changed configuration is used at the next start.
+ * Beyond the window, or if there is no local copy, the URL is fetched before it returns.
+ * If the fetch fails, a local copy beyond the window is still used and a warning is logged (stale-if-error). <br/>
+ * Content files which are neither the current nor the previous content of a URL are deleted when a content is changed. <br/>
+ * Other URLs, such as file: or jar:, are returned as is.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * HibernateUtil.createSessionFactoryBuilder()
+ * 	.setRemoteConfigurationCache(new File("config-cache"), 24 * 60 * 60)	// start with a copy of the last 24 hours
+ * 	.setPropertyConfiguration(new URL("http://config/hibernate.cfg.xml"))
+ * 	.build();
+ * }
+ * </PRE>
+ */
+public class RemoteConfigurationCache {
+
+	private static final String CONTENT = "content";
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "last_modified";
+	private static final String VALIDATED_AT = "validated_at";
+	/** Hash of the content before the last change, it is kept because it may be in use by the running process */
+	private static final String PREVIOUS = "previous";
+	private static final Logger log = Logger.getLogger(RemoteConfigurationCache.class);
+
+	/** Background revalidation, daemon threads do not block the process from exiting */
+	private static final ExecutorService revalidator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "remote-configuration-revalidator");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final File directory;
+	/** Map{@literal<URL, Latest background revalidation>} */
+	private final ConcurrentMap<String, Future<Boolean>> revalidations = new ConcurrentHashMap<String, Future<Boolean>>();
+	private final long maxStaleMillis;
+	private int connectTimeout = 5000;
+	private int readTimeout = 10000;
+
+	/**
+	 * @param directory where the copies are stored, it is created if it does not exist
+	 * @param maxStaleSeconds how long a copy is used without waiting for the server, 0 to always revalidate before it is used
+	 */
+	public RemoteConfigurationCache(File directory, int maxStaleSeconds){
+		this.directory = directory;
+		this.maxStaleMillis = maxStaleSeconds * 1000L;
+	}
+
+	/** Timeouts of fetching, default 5 seconds to connect and 10 seconds to read */
+	public RemoteConfigurationCache setTimeouts(int connectTimeoutMillis, int readTimeoutMillis){
+		this.connectTimeout = connectTimeoutMillis;
+		this.readTimeout = readTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * Get the URL of the local copy
+	 * @return file: URL of the local copy, or the same URL if it is not http or https
+	 * @throws RuntimeException if there is no local copy and the URL cannot be fetched
+	 */
+	public URL resolve(final URL remote){
+		if (!isHttp(remote)) return remote;
+
+		final Properties metadata = readMetadata(remote);
+		final File content = metadata == null ? null : contentFile(metadata.getProperty(CONTENT));
+		if (content != null && content.isFile()) {
+			final long age = System.currentTimeMillis() - Long.parseLong(metadata.getProperty(VALIDATED_AT, "0"));
+			if (age < maxStaleMillis) {
+				revalidateInBackground(remote);
+				return toURL(content);
+			}
+		}
+
+		try {
+			revalidate(remote);
+		} catch (IOException e) {
+			if (content == null || !content.isFile())
+				throw new RuntimeException("Cannot fetch " + remote + " and there is no local copy", e);
+			log.warnf(e, "Cannot revalidate %s, the local copy validated at %tc is used", remote,
+					Long.parseLong(metadata.getProperty(VALIDATED_AT, "0")));
+			return toURL(content);
+		}
+		return toURL(contentFile(readMetadata(remote).getProperty(CONTENT)));
+	}
+
+	/** Same as {@link #revalidate(URL)} by a background thread, failures are logged and the local copy is kept. One revalidation per URL is pending at a time. */
+	public Future<Boolean> revalidateInBackground(final URL remote){
+		final String key = remote.toExternalForm();
+		final Future<Boolean> pending = revalidations.get(key);
+		if (pending != null && !pending.isDone()) return pending;
+
+		final Future<Boolean> submitted = revalidator.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				try {
+					return revalidate(remote);
+				} catch (IOException e) {
+					log.warnf(e, "Cannot revalidate %s in background", remote);
+					throw e;
+				}
+			}
+		});
+		revalidations.put(key, submitted);
+		return submitted;
+	}
+
+	/**
+	 * Fetch the URL by a conditional request and update the local copy
+	 * @return true if the content was changed or fetched at the first time, false if it was not modified
+	 */
+	public synchronized boolean revalidate(URL remote) throws IOException{
+		Properties metadata = readMetadata(remote);
+		final boolean hasCopy = metadata != null && contentFile(metadata.getProperty(CONTENT)).isFile();
+		if (!hasCopy) metadata = new Properties();
+
+		final HttpURLConnection connection = (HttpURLConnection) remote.openConnection();
+		try {
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			connection.setUseCaches(false);
+			if (hasCopy && metadata.getProperty(ETAG) != null)
+				connection.setRequestProperty("If-None-Match", metadata.getProperty(ETAG));
+			if (hasCopy && metadata.getProperty(LAST_MODIFIED) != null)
+				connection.setRequestProperty("If-Modified-Since", metadata.getProperty(LAST_MODIFIED));
+
+			final int status = connection.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && hasCopy) {
+				metadata.setProperty(VALIDATED_AT, String.valueOf(System.currentTimeMillis()));
+				writeMetadata(remote, metadata);
+				return false;
+			}
+			if (status != HttpURLConnection.HTTP_OK)
+				throw new IOException("Unexpected HTTP status " + status + " of " + remote);
+
+			final byte[] body = readAll(connection.getInputStream());
+			final String hash = sha256(body);
+			final File content = contentFile(hash);
+			if (!content.isFile()) write(content, body);
+
+			final boolean changed = !hash.equals(metadata.getProperty(CONTENT));
+			if (changed) setOrRemove(metadata, PREVIOUS, metadata.getProperty(CONTENT));
+			metadata.setProperty(CONTENT, hash);
+			setOrRemove(metadata, ETAG, connection.getHeaderField("ETag"));
+			setOrRemove(metadata, LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+			metadata.setProperty(VALIDATED_AT, String.valueOf(System.currentTimeMillis()));
+			writeMetadata(remote, metadata);
+			if (changed) prune();
+			return changed;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/** Delete content files which are not the current or previous content of any URL of the directory */
+	private void prune(){
+		final File[] files = directory.listFiles();
+		if (files == null) return;
+		final Set<String> referenced = new HashSet<String>();
+		for (File file : files) {
+			if (!file.getName().endsWith(".properties")) continue;
+			final Properties metadata = readMetadata(file);
+			if (metadata == null) continue;
+			referenced.add(metadata.getProperty(CONTENT));
+			if (metadata.getProperty(PREVIOUS) != null) referenced.add(metadata.getProperty(PREVIOUS));
+		}
+		for (File file : files) {
+			final String name = file.getName();
+			if (name.endsWith(".xml") && !referenced.contains(name.substring(0, name.length() - ".xml".length())) && !file.delete())
+				log.warnf("Cannot delete the unused copy %s", file);
+		}
+	}
+
+	private static boolean isHttp(URL url){
+		return "http".equalsIgnoreCase(url.getProtocol()) || "https".equalsIgnoreCase(url.getProtocol());
+	}
+	private File contentFile(String hash){
+		return new File(directory, hash + ".xml");
+	}
+	private File metadataFile(URL remote){
+		return new File(directory, sha256(bytes(remote.toExternalForm())) + ".properties");
+	}
+
+	/** Metadata of the URL, null if it was never fetched */
+	private Properties readMetadata(URL remote){
+		return readMetadata(metadataFile(remote));
+	}
+	private Properties readMetadata(File file){
+		if (!file.isFile()) return null;
+		try {
+			final Properties metadata = new Properties();
+			final InputStream in = new FileInputStream(file);
+			try {
+				metadata.load(in);
+			} finally {
+				in.close();
+			}
+			return metadata.getProperty(CONTENT) == null ? null : metadata;
+		} catch (IOException e) {
+			log.warnf(e, "Cannot read %s", file);
+			return null;
+		}
+	}
+	private void writeMetadata(URL remote, Properties metadata) throws IOException{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		metadata.store(out, remote.toExternalForm());
+		write(metadataFile(remote), out.toByteArray());
+	}
+
+	/**
+	 * Write to a temporary file then rename it, so a reader never sees a partial file. <br/>
+	 * The rename replaces an existing file atomically on POSIX file systems. Where it cannot replace it, such as on Windows,
+	 * the existing file is deleted first, and a reader may find no file meanwhile, which is the same as a missing copy.
+	 */
+	private void write(File file, byte[] content) throws IOException{
+		directory.mkdirs();
+		final File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			final OutputStream out = new FileOutputStream(temporary);
+			try {
+				out.write(content);
+			} finally {
+				out.close();
+			}
+			if (temporary.renameTo(file)) return;
+			if (file.exists() && !file.delete())
+				throw new IOException("Cannot replace " + file);
+			if (!temporary.renameTo(file))
+				throw new IOException("Cannot rename " + temporary + " to " + file);
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	private static void setOrRemove(Properties properties, String key, String value){
+		if (value == null) properties.remove(key);
+		else properties.setProperty(key, value);
+	}
+	private static byte[] readAll(InputStream in) throws IOException{
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			for (int read; (read = in.read(buffer)) != -1;)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	private static URL toURL(File file){
+		try {
+			return file.toURI().toURL();
+		} catch (MalformedURLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	private static String sha256(byte[] content){
+		try {
+			final StringBuilder builder = new StringBuilder(64);
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(content))
+				builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);		// every Java platform supports SHA-256
+		}
+	}
+	private static byte[] bytes(String value){
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
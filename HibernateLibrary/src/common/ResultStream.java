@@ -0,0 +1,97 @@
+package common;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+/**
+ * @definition
+ * Forward-only Iterator over {@link ScrollableResults}, rows are read from JDBC one by one instead of loading the whole result. <br/>
+ * A result is evicted from the Session when the iterator moves to the next row, or when the stream is closed,
+ * therefore the persistence context does not grow with the number of rows. <br/>
+ * Always {@link #close()} the stream, the JDBC ResultSet is opened until the last row is read.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * ResultStream<Account> accounts = stream("from Account");
+ * try {
+ * 	while (accounts.hasNext())
+ * 		export(accounts.next());
+ * } finally {
+ * 	accounts.close();
+ * }
+ * }
+ * </PRE>
+ */
+public class ResultStream<T> implements Iterator<T> {
+
+	private final ScrollableResults results;
+	/** Sessions which the results may belong to, null elements are ignored */
+	private final Session[] sessions;
+	/** The result which was returned by {@link #next()}, evict it when moving to the next row */
+	private Object current;
+	/** null if the next row has not been fetched */
+	private Boolean hasNext;
+	private boolean closed;
+
+	/**
+	 * @param results forward-only results
+	 * @param sessions the Session which the results are loaded by, or several Sessions if it is not known
+	 */
+	public ResultStream(ScrollableResults results, Session... sessions){
+		this.results = results;
+		this.sessions = sessions;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed) return false;
+		if (hasNext == null) {
+			evict(current);
+			current = null;
+			hasNext = results.next();
+			if (!hasNext) close();
+		}
+		return hasNext;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		hasNext = null;
+
+		final Object[] row = results.get();
+		current = row.length == 1 ? row[0] : row;	// entity or single column, otherwise Object[] for multiple columns
+		return (T) current;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("ResultStream is read only");
+	}
+
+	/** Evict the last result and release the JDBC ResultSet, nothing happens if it was closed. */
+	public void close(){
+		if (closed) return;
+		closed = true;
+		evict(current);
+		current = null;
+		results.close();
+	}
+
+	/** Evict a result from the Session, including every entity of an Object[] row. Scalar values are ignored. */
+	private void evict(Object result){
+		if (result instanceof Object[]) {
+			for (Object column : (Object[]) result)
+				evict(column);
+		} else if (result != null) {
+			for (Session session : sessions) {
+				if (session != null && session.contains(result))
+					session.evict(result);
+			}
+		}
+	}
+}
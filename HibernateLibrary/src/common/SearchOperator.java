@@ -0,0 +1,135 @@
+package common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.LikeExpression;
+import org.hibernate.criterion.MatchMode;
+import org.hibernate.criterion.Restrictions;
+
+/**
+ * @definition
+ * Restriction of one property of {@link BaseController.Searcher} other than equality, they are written so that a B-tree index of the column can be used: <br/>
+ * prefix - column LIKE 'ke%', the pattern is left-anchored and its wildcards are escaped, the case is not converted <br/>
+ * range - column BETWEEN ? AND ?, or one bound if the other is null <br/>
+ * in - column IN (?, ?, ...), duplicate values are removed <br/>
+ * For composite primary keys such as (site, location, name) of {@link model.UserId}, see {@link SearchPlan#KEY_ORDER}, an index is used from the leading column,
+ * so restrict the leading columns by equality and the next column by an operator, such as site = ? and location LIKE 'tw%'. <br/>
+ * Operators are immutable and comparable, they are a part of the fingerprint of {@link SearchResultCache}.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * createSearcher(SearchMode.BY_NON_NULL_FIELDS)
+ * 		.where("username", SearchOperator.startsWith("ke"))		// same as .startsWith("username", "ke")
+ * 		.search(Account.class, null);
+ * }
+ * </PRE>
+ */
+public final class SearchOperator implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** Escape character of prefix patterns, it is supported by every database unlike backslash */
+	public static final char ESCAPE = '!';
+
+	public enum Kind{
+		PREFIX, RANGE, IN
+	}
+
+	/** Left-anchored LIKE, the prefix is matched literally, such as '50%' matches '50% off' only */
+	public static SearchOperator startsWith(String prefix){
+		if (prefix == null)
+			throw new IllegalArgumentException("prefix is null");
+		return new SearchOperator(Kind.PREFIX, Collections.<Object>singletonList(prefix));
+	}
+	/**
+	 * Inclusive range, a null bound is open
+	 * @throws IllegalArgumentException if both bounds are null
+	 */
+	public static SearchOperator between(Object lower, Object upper){
+		if (lower == null && upper == null)
+			throw new IllegalArgumentException("both bounds are null");
+		return new SearchOperator(Kind.RANGE, Arrays.asList(lower, upper));
+	}
+	/** IN-list, an empty collection matches nothing */
+	public static SearchOperator in(Collection<?> values){
+		return new SearchOperator(Kind.IN, Collections.unmodifiableList(new ArrayList<Object>(new LinkedHashSet<Object>(values))));
+	}
+
+	private final Kind kind;
+	/** PREFIX - {prefix}, RANGE - {lower, upper}, IN - distinct values */
+	private final List<Object> values;
+
+	private SearchOperator(Kind kind, List<Object> values){
+		this.kind = kind;
+		this.values = values;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+	public List<Object> getValues() {
+		return values;
+	}
+
+	/** Hibernate Criterion of the property, such as 'username' or 'id.location' */
+	public Criterion toCriterion(String propertyName){
+		switch (kind) {
+		case PREFIX:
+			return new PrefixExpression(propertyName, escape((String) values.get(0)));
+		case RANGE:
+			if (values.get(0) == null) return Restrictions.le(propertyName, values.get(1));
+			if (values.get(1) == null) return Restrictions.ge(propertyName, values.get(0));
+			return Restrictions.between(propertyName, values.get(0), values.get(1));
+		case IN:
+			if (values.isEmpty()) return Restrictions.sqlRestriction("1=0");	// 'in ()' is not valid SQL
+			return Restrictions.in(propertyName, values);
+		default:
+			throw new RuntimeException("Unsupport search operator " + kind);
+		}
+	}
+
+	/** Escape the wildcards of LIKE, so the prefix is matched literally */
+	static String escape(String prefix){
+		final StringBuilder builder = new StringBuilder(prefix.length() + 4);
+		for (int i = 0; i < prefix.length(); i++) {
+			final char c = prefix.charAt(i);
+			if (c == '%' || c == '_' || c == ESCAPE) builder.append(ESCAPE);
+			builder.append(c);
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * kind.hashCode() + values.hashCode();
+	}
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof SearchOperator)) return false;
+		final SearchOperator other = (SearchOperator) obj;
+		return kind == other.kind && values.equals(other.values);
+	}
+	@Override
+	public String toString() {
+		return kind + " " + values;
+	}
+
+
+
+//	INNER CLASS		\\
+	/** Case-sensitive LIKE 'prefix%' with {@link SearchOperator#ESCAPE}, LikeExpression can be constructed by subclasses only */
+	private static class PrefixExpression extends LikeExpression{
+		private static final long serialVersionUID = 1L;
+
+		private PrefixExpression(String propertyName, String escapedPrefix){
+			super(propertyName, escapedPrefix, MatchMode.START, ESCAPE, false);
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.EntityMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.ComponentType;
+import org.hibernate.type.Type;
+
+/**
+ * @definition
+ * Compiled search metadata of an entity class, used by {@link BaseController.Searcher}. <br/>
+ * Unlike {@link EntityMetadata}, a plan does not hold any entity values, it is built once per entity class and SessionFactory,
+ * then only the searchable values are read from the entity on each search. <br/>
+ * Association properties are dropped at compile time and exclusions are resolved into a derived plan, see {@link #exclude(Set)}. <br/>
+ * Property values are read by their precomputed indexes, all values of an entity are read once by {@link #getPropertyValues(Object)}. <br/>
+ * Composite primary keys are read by the getters of Hibernate's {@link ComponentType} by index, the restriction names such as 'id.site' are precomputed.
+ * Their order is the key order of the database index, which is configured by {@link #KEY_ORDER}, such as (site, location, name) of {@link model.UserId}.
+ * Otherwise it is the mapped component order, {@link ComponentType#getPropertyNames()}, 
+ * and Hibernate sorts the properties of an annotated embeddable by name, such as (location, name, site).
+ * @codeSample
+ * <PRE>
+ * {@code
+ * SearchPlan plan = SearchPlan.of(sessionFactory, Account.class);
+ * Object[] values = plan.getPropertyValues(account);
+ * for (int i = 0; i < plan.size(); i++)
+ * 	print(plan.getPropertyName(i) + "=" + plan.getPropertyValue(values, i));
+ * }
+ * </PRE>
+ */
+public class SearchPlan {
+
+	/** 
+	 * Prefix of the composite primary key order of an entity, comma separated component property names in the order of the primary key index, 
+	 * such as 'common.search.key_order.model.User' = 'site, location, name', see {@link HibernateUtil.SessionFactoryBuilder#setKeyOrder(Class, String...)}
+	 */
+	public static final String KEY_ORDER = "common.search.key_order.";
+
+	/** Map{@literal<SessionFactory, Map<Entity class, SearchPlan>>}, plans are compiled lazily and never change afterward. */
+	private static final ConcurrentMap<SessionFactory, ConcurrentMap<Class<?>, SearchPlan>> plans = new ConcurrentHashMap<SessionFactory, ConcurrentMap<Class<?>, SearchPlan>>();
+
+	/** Get the cached plan of an entity class, compile it at the first call. */
+	public static SearchPlan of(SessionFactory sessionFactory, Class<?> entityClass){
+		ConcurrentMap<Class<?>, SearchPlan> factoryPlans = plans.get(sessionFactory);
+		if (factoryPlans == null) {
+			ConcurrentMap<Class<?>, SearchPlan> created = new ConcurrentHashMap<Class<?>, SearchPlan>();
+			factoryPlans = plans.putIfAbsent(sessionFactory, created);
+			if (factoryPlans == null) factoryPlans = created;
+		}
+
+		SearchPlan plan = factoryPlans.get(entityClass);
+		if (plan == null) {
+			ClassMetadata classMetadata = sessionFactory.getClassMetadata(entityClass);
+			if (classMetadata == null)
+				throw new RuntimeException("classMetadata is null, " + entityClass.getName() + " is not a mapped entity");
+
+			final String keyOrder = ((SessionFactoryImplementor) sessionFactory).getProperties().getProperty(KEY_ORDER + classMetadata.getEntityName());
+			SearchPlan compiled = new SearchPlan(classMetadata, keyOrder == null ? null : keyOrder.split("\\s*,\\s*"));
+			plan = factoryPlans.putIfAbsent(entityClass, compiled);
+			if (plan == null) plan = compiled;
+		}
+		return plan;
+	}
+
+	/** Drop all plans which was compiled for the SessionFactory, call it when the SessionFactory is closed. */
+	public static void release(SessionFactory sessionFactory){
+		plans.remove(sessionFactory);
+	}
+
+
+
+	public enum IdentifierKind{
+		/** Single primary key, such as Account.username */
+		SINGLE,
+		/** Composite primary keys, such as User.id which is {@link model.UserId} */
+		COMPOSITE,
+		/** Identifier type which cannot be searched */
+		UNSUPPORTED
+	}
+
+	private final ClassMetadata classMetadata;
+	/** Non-association properties' name, excluded properties are not included */
+	private final String[] propertyNames;
+	/** Indexes of {@link #propertyNames} in the entity's property values, see {@link #getPropertyValues(Object)} */
+	private final int[] propertyIndexes;
+	private final boolean[] nullabilities;
+	private final String identifierPropertyName;
+	private final IdentifierKind identifierKind;
+	/** Component type of composite primary keys, null for other identifier kinds */
+	private final ComponentType identifierComponent;
+	/** Component property names in the key order, null for the mapped component order, see {@link #KEY_ORDER} */
+	private final String[] keyOrder;
+	/** Component property indexes of composite primary keys in the key order, excluded properties are not included */
+	private final int[] identifierComponentIndexes;
+	/** Restriction names of composite primary keys, such as 'id.site' */
+	private final String[] identifierComponentNames;
+	/** Exclusion properties' name of this plan, empty for the root plan */
+	private final Set<String> exclusion;
+	/** Map{@literal<Exclusion, derived SearchPlan>}, shared by the root plan and its derived plans */
+	private final ConcurrentMap<Set<String>, SearchPlan> derivedPlans;
+
+	private SearchPlan(ClassMetadata classMetadata, String[] keyOrder){
+		this(classMetadata, keyOrder, Collections.<String>emptySet(), new ConcurrentHashMap<Set<String>, SearchPlan>());
+	}
+	private SearchPlan(ClassMetadata classMetadata, String[] keyOrder, Set<String> exclusion, ConcurrentMap<Set<String>, SearchPlan> derivedPlans){
+		this.classMetadata = classMetadata;
+		this.keyOrder = keyOrder;
+		this.exclusion = exclusion;
+		this.derivedPlans = derivedPlans;
+
+		final String[] names = classMetadata.getPropertyNames();
+		final Type[] types = classMetadata.getPropertyTypes();
+		final boolean[] nullability = classMetadata.getPropertyNullability();
+
+		final List<Integer> indexes = new ArrayList<Integer>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			if (!types[i].isAssociationType() &&					// exclude fields which generate by foreign key joining
+				!exclusion.contains(names[i]))						// exclude specified fields
+				indexes.add(i);
+		}
+
+		this.propertyNames = new String[indexes.size()];
+		this.propertyIndexes = new int[indexes.size()];
+		this.nullabilities = new boolean[indexes.size()];
+		for (int i = 0; i < indexes.size(); i++) {
+			this.propertyNames[i] = names[indexes.get(i)];
+			this.propertyIndexes[i] = indexes.get(i);
+			this.nullabilities[i] = nullability[indexes.get(i)];
+		}
+
+		this.identifierPropertyName = classMetadata.getIdentifierPropertyName();
+		final Type identifierType = classMetadata.getIdentifierType();
+		if (identifierType.isComponentType())
+			this.identifierKind = IdentifierKind.COMPOSITE;
+		else if (identifierType.isAnyType() || identifierType.isAssociationType() || identifierType.isCollectionType())
+			this.identifierKind = IdentifierKind.UNSUPPORTED;
+		else
+			this.identifierKind = IdentifierKind.SINGLE;
+
+		if (identifierKind == IdentifierKind.COMPOSITE) {
+			this.identifierComponent = (ComponentType) identifierType;
+			final String[] componentNames = identifierComponent.getPropertyNames();
+
+			// the key order of the primary key index if it is configured, otherwise the mapped component order
+			final List<Integer> componentIndexes = new ArrayList<Integer>(componentNames.length);
+			if (keyOrder == null) {
+				for (int i = 0; i < componentNames.length; i++)
+					componentIndexes.add(i);
+			} else {
+				final List<String> mapped = Arrays.asList(componentNames);
+				for (String name : keyOrder) {
+					final int index = mapped.indexOf(name);
+					if (index < 0 || componentIndexes.contains(index))
+						throw new RuntimeException("Invalid key order " + Arrays.toString(keyOrder) + " of " + classMetadata.getEntityName() + ", the properties are " + mapped);
+					componentIndexes.add(index);
+				}
+				if (componentIndexes.size() != componentNames.length)
+					throw new RuntimeException("Invalid key order " + Arrays.toString(keyOrder) + " of " + classMetadata.getEntityName() + ", the properties are " + mapped);
+			}
+			for (int i = componentIndexes.size() - 1; i >= 0; i--) {
+				if (exclusion.contains(identifierPropertyName + "." + componentNames[componentIndexes.get(i)]))	// exclude specified fields, such as 'id.site'
+					componentIndexes.remove(i);
+			}
+
+			this.identifierComponentIndexes = new int[componentIndexes.size()];
+			this.identifierComponentNames = new String[componentIndexes.size()];
+			for (int i = 0; i < componentIndexes.size(); i++) {
+				this.identifierComponentIndexes[i] = componentIndexes.get(i);
+				this.identifierComponentNames[i] = identifierPropertyName + "." + componentNames[componentIndexes.get(i)];
+			}
+		} else {
+			this.identifierComponent = null;
+			this.identifierComponentIndexes = new int[0];
+			this.identifierComponentNames = new String[0];
+		}
+	}
+
+	/**
+	 * Get the plan which does not contain the excluded properties. Derived plans are cached by the exclusion.
+	 * @param exclusion properties' name, such as 'password'
+	 */
+	public SearchPlan exclude(Set<String> exclusion){
+		if (exclusion.isEmpty() || exclusion.equals(this.exclusion)) return this;
+
+		SearchPlan plan = derivedPlans.get(exclusion);
+		if (plan == null) {
+			Set<String> key = Collections.unmodifiableSet(new HashSet<String>(exclusion));
+			SearchPlan compiled = new SearchPlan(classMetadata, keyOrder, key, derivedPlans);
+			plan = derivedPlans.putIfAbsent(key, compiled);
+			if (plan == null) plan = compiled;
+		}
+		return plan;
+	}
+
+	/** Number of searchable properties */
+	public int size() {
+		return propertyNames.length;
+	}
+	public String getPropertyName(int index) {
+		return propertyNames[index];
+	}
+	public boolean isNullability(int index) {
+		return nullabilities[index];
+	}
+	/** Read all property values of the entity once, then get the searchable ones by {@link #getPropertyValue(Object[], int)} */
+	public Object[] getPropertyValues(Object entity) {
+		return classMetadata.getPropertyValues(entity);
+	}
+	/** Searchable property value of the values which was read by {@link #getPropertyValues(Object)} */
+	public Object getPropertyValue(Object[] values, int index) {
+		return values[propertyIndexes[index]];
+	}
+
+	public String getIdentifierPropertyName() {
+		return identifierPropertyName;
+	}
+	public IdentifierKind getIdentifierKind() {
+		return identifierKind;
+	}
+	/** Number of searchable properties of composite primary keys, 0 for other identifier kinds */
+	public int identifierComponentSize() {
+		return identifierComponentNames.length;
+	}
+	/** Restriction name of a composite primary key property, such as 'id.site' */
+	public String getIdentifierComponentName(int index) {
+		return identifierComponentNames[index];
+	}
+	/** Read a searchable property value from composite primary keys by the component index, such as user.getId().getSite() */
+	public Object getIdentifierComponentValue(Serializable identifier, int index) {
+		return identifierComponent.getPropertyValue(identifier, identifierComponentIndexes[index], EntityMode.POJO);
+	}
+	@SuppressWarnings("deprecation")
+	public Serializable getIdentifier(Object entity) {
+		return classMetadata.getIdentifier(entity);
+	}
+
+	public ClassMetadata getClassMetadata() {
+		return classMetadata;
+	}
+	public Set<String> getExclusion() {
+		return exclusion;
+	}
+}
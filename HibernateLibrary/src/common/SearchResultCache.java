@@ -0,0 +1,382 @@
+package common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * @definition
+ * Bounded cache of {@link BaseController.Searcher#search(Class, Object)} results, one cache per SessionFactory. <br/>
+ * An entry is keyed by the search fingerprint, which is (entity class, search mode, exclusions, restriction names and values),
+ * and it holds the identifiers of the results only, the entities are loaded by the Session which searches again. <br/>
+ * Each table has a generation which is increased when an entity of the table is inserted, updated or deleted,
+ * an entry is stale when the generation of its tables was changed after the search, therefore a write only invalidates the searches of the same tables. <br/>
+ * Writes are detected by post insert, update and delete events at flush time and again after commit,
+ * so a search which ran between the flush and the commit cannot keep the uncommitted state. Bulk HQL updates are not detected, call {@link #invalidate(Class)}. <br/>
+ * Searches inside a transaction use the cache too, unless the Session wrote the tables of the search in the transaction, see {@link #isWrittenBy(Session, Key)}.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * HibernateUtil.createSessionFactoryBuilder().enableSearchResultCache(1000).build();
+ * ...
+ * print(SearchResultCache.of(sessionFactory).getStatistics());
+ * }
+ * </PRE>
+ */
+public class SearchResultCache {
+
+	/** Maximum number of cached searches, the cache is enabled if it is positive, see {@link HibernateUtil.SessionFactoryBuilder#enableSearchResultCache(int)} */
+	public static final String MAX_ENTRIES = "common.search_cache.max_entries";
+	/** Searches which return more results are not cached, default 1000 */
+	public static final String MAX_RESULT_SIZE = "common.search_cache.max_result_size";
+	public static final int DEFAULT_MAX_RESULT_SIZE = 1000;
+
+	/** Map{@literal<SessionFactory, SearchResultCache>} */
+	private static final ConcurrentMap<SessionFactory, SearchResultCache> caches = new ConcurrentHashMap<SessionFactory, SearchResultCache>();
+
+	/** Get the cache of the SessionFactory, null if it is not enabled */
+	public static SearchResultCache of(SessionFactory sessionFactory){
+		return caches.get(sessionFactory);
+	}
+
+	/**
+	 * Enable the cache for the SessionFactory and listen to its writes. Nothing happens if it was enabled.
+	 * @calledBy {@link HibernateUtil.SessionFactoryBuilder#build(org.hibernate.cfg.Configuration)}
+	 */
+	public static SearchResultCache register(SessionFactory sessionFactory, int maxEntries, int maxResultSize){
+		final SearchResultCache created = new SearchResultCache((SessionFactoryImplementor) sessionFactory, maxEntries, maxResultSize);
+		final SearchResultCache existing = caches.putIfAbsent(sessionFactory, created);
+		if (existing != null) return existing;
+
+		final EventListenerRegistry registry = created.sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+		final InvalidationListener flushListener = created.new InvalidationListener(true);
+		final InvalidationListener commitListener = created.new InvalidationListener(false);
+		registry.appendListeners(EventType.POST_INSERT, flushListener);
+		registry.appendListeners(EventType.POST_UPDATE, flushListener);
+		registry.appendListeners(EventType.POST_DELETE, flushListener);
+		registry.appendListeners(EventType.POST_COMMIT_INSERT, commitListener);
+		registry.appendListeners(EventType.POST_COMMIT_UPDATE, commitListener);
+		registry.appendListeners(EventType.POST_COMMIT_DELETE, commitListener);
+		return created;
+	}
+
+	/** Drop the cache of the SessionFactory, call it when the SessionFactory is closed. */
+	public static void release(SessionFactory sessionFactory){
+		caches.remove(sessionFactory);
+	}
+
+
+
+	private final SessionFactoryImplementor sessionFactory;
+	private final int maxResultSize;
+	/** Map{@literal<Session, Tables>} which the Session flushed writes to in its running transaction, they are removed after the transaction is completed */
+	private final Map<Session, Set<Serializable>> writtenSpaces = Collections.synchronizedMap(new WeakHashMap<Session, Set<Serializable>>());
+	/** Map{@literal<Table name, Generation>} */
+	private final ConcurrentMap<Serializable, AtomicLong> generations = new ConcurrentHashMap<Serializable, AtomicLong>();
+	/** LRU map of entries, synchronized on the cache */
+	private final Map<Key, Item> entries;
+
+	private long hits, misses, stales, puts, evictions;
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private SearchResultCache(SessionFactoryImplementor sessionFactory, final int maxEntries, int maxResultSize){
+		this.sessionFactory = sessionFactory;
+		this.maxResultSize = maxResultSize;
+		this.entries = new LinkedHashMap<Key, Item>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Item> eldest) {
+				if (size() <= maxEntries) return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Create the fingerprint of a search
+	 * @param restrictions Map{@literal<Restriction name, value>}, such as {username=ken}
+	 */
+	public Key createKey(Class<?> entityClass, Object searchMode, Set<String> exclusion, Map<String, Object> restrictions){
+		final EntityPersister persister = sessionFactory.getEntityPersister(entityClass.getName());
+		return new Key(entityClass, searchMode, exclusion, restrictions, persister.getQuerySpaces());
+	}
+
+	/** Current generations of the tables of the search, take them before the search is executed and pass them to {@link #put(Key, long[], List)} */
+	public long[] getGenerations(Key key){
+		final long[] current = new long[key.querySpaces.length];
+		for (int i = 0; i < current.length; i++)
+			current[i] = generation(key.querySpaces[i]).get();
+		return current;
+	}
+
+	/** Get the identifiers of the results, null if the search was not cached or it is stale. Hit, miss and stale are counted. */
+	public List<Serializable> get(Key key){
+		final long[] current = getGenerations(key);
+		synchronized (this) {
+			final Item entry = entries.get(key);
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			if (!Arrays.equals(entry.generations, current)) {
+				entries.remove(key);
+				stales++;
+				return null;
+			}
+			hits++;
+			return entry.identifiers;
+		}
+	}
+
+	/**
+	 * Cache the identifiers of the results, results which are larger than the max result size are ignored.
+	 * @param generations generations which was taken before the search, so that a write during the search makes the entry stale
+	 */
+	public void put(Key key, long[] generations, List<Serializable> identifiers){
+		if (identifiers.size() > maxResultSize) return;
+		final Item entry = new Item(generations, Collections.unmodifiableList(new ArrayList<Serializable>(identifiers)));
+		synchronized (this) {
+			entries.put(key, entry);
+			puts++;
+		}
+	}
+
+	/**
+	 * Whether the Session has uncommitted writes to the tables of the search, its cached results may not include them then. <br/>
+	 * Flushed writes of the running transaction are recorded per Session, and pending changes are dirty checked
+	 * if the Session flushes before queries ({@link FlushMode#AUTO}), like the query of an uncached search would do.
+	 * It is false outside transactions and for read only units of work, see {@link HibernateUtil#readOnly(HibernateUtil.UnitOfWork)}.
+	 */
+	public boolean isWrittenBy(Session session, Key key){
+		if (!session.getTransaction().isActive()) return false;
+		final Set<Serializable> written = writtenSpaces.get(session);
+		if (written != null) {
+			for (Serializable space : key.querySpaces)
+				if (written.contains(space)) return true;
+		}
+		final FlushMode flushMode = session.getFlushMode();
+		return (flushMode == FlushMode.AUTO || flushMode == FlushMode.ALWAYS) && session.isDirty();
+	}
+	/** Record the tables which the Session wrote in its transaction, until the transaction is completed */
+	private void written(EventSource session, Serializable[] spaces){
+		Set<Serializable> written = writtenSpaces.get(session);
+		if (written == null) {
+			written = new HashSet<Serializable>();
+			writtenSpaces.put(session, written);
+			session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+				@Override
+				public void doAfterTransactionCompletion(boolean success, SessionImplementor completed) {
+					writtenSpaces.remove(completed);
+				}
+			});
+		}
+		Collections.addAll(written, spaces);
+	}
+
+	/** Remove an entry, such as a cached result which cannot be loaded anymore */
+	public synchronized void remove(Key key){
+		entries.remove(key);
+	}
+
+	/** Make all cached searches of the entity's tables stale */
+	public void invalidate(Class<?> entityClass){
+		invalidate(sessionFactory.getEntityPersister(entityClass.getName()).getPropertySpaces());
+	}
+	private void invalidate(Serializable[] tables){
+		for (Serializable table : tables)
+			generation(table).incrementAndGet();
+		invalidations.incrementAndGet();
+	}
+	private AtomicLong generation(Serializable table){
+		AtomicLong generation = generations.get(table);
+		if (generation == null) {
+			AtomicLong created = new AtomicLong();
+			generation = generations.putIfAbsent(table, created);
+			if (generation == null) generation = created;
+		}
+		return generation;
+	}
+
+	/** Remove all entries */
+	public synchronized void clear(){
+		entries.clear();
+	}
+
+	public int getMaxResultSize() {
+		return maxResultSize;
+	}
+
+	public synchronized Statistics getStatistics(){
+		return new Statistics(entries.size(), hits, misses, stales, puts, evictions, invalidations.get());
+	}
+
+
+
+//	INNER CLASS		\\
+	/** Fingerprint of a search, restriction values are compared by equals, such as String and Integer */
+	public static class Key{
+		private final Class<?> entityClass;
+		private final Object searchMode;
+		private final Set<String> exclusion;
+		private final Map<String, Object> restrictions;
+		/** Tables of the entity, not a part of the fingerprint */
+		private final Serializable[] querySpaces;
+		private final int hashCode;
+
+		private Key(Class<?> entityClass, Object searchMode, Set<String> exclusion, Map<String, Object> restrictions, Serializable[] querySpaces){
+			this.entityClass = entityClass;
+			this.searchMode = searchMode;
+			this.exclusion = exclusion;
+			this.restrictions = restrictions;
+			this.querySpaces = querySpaces;
+			int hash = entityClass.hashCode();
+			hash = 31 * hash + searchMode.hashCode();
+			hash = 31 * hash + exclusion.hashCode();
+			hash = 31 * hash + restrictions.hashCode();
+			this.hashCode = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			final Key other = (Key) obj;
+			return hashCode == other.hashCode &&
+					entityClass.equals(other.entityClass) &&
+					searchMode.equals(other.searchMode) &&
+					exclusion.equals(other.exclusion) &&
+					restrictions.equals(other.restrictions);
+		}
+		@Override
+		public String toString() {
+			return entityClass.getSimpleName() + " " + searchMode + " " + restrictions + " exclude " + exclusion;
+		}
+	}
+
+	private static class Item{
+		final long[] generations;
+		final List<Serializable> identifiers;
+		Item(long[] generations, List<Serializable> identifiers){
+			this.generations = generations;
+			this.identifiers = identifiers;
+		}
+	}
+
+	public static class Statistics{
+		private final long size;
+		private final long hits;
+		private final long misses;
+		private final long stales;
+		private final long puts;
+		private final long evictions;
+		private final long invalidations;
+
+		private Statistics(long size, long hits, long misses, long stales, long puts, long evictions, long invalidations){
+			this.size = size;
+			this.hits = hits;
+			this.misses = misses;
+			this.stales = stales;
+			this.puts = puts;
+			this.evictions = evictions;
+			this.invalidations = invalidations;
+		}
+		public long getSize() {
+			return size;
+		}
+		public long getHits() {
+			return hits;
+		}
+		public long getMisses() {
+			return misses;
+		}
+		/** Number of lookups which found an entry that was invalidated by a write */
+		public long getStales() {
+			return stales;
+		}
+		/** Hits / (hits + misses + stales), 0 if the cache was never read */
+		public double getHitRatio() {
+			final long lookups = hits + misses + stales;
+			return lookups == 0 ? 0 : (double) hits / lookups;
+		}
+		/** Stales / (hits + stales), the ratio of cached searches which were invalidated before they were reused */
+		public double getStaleRatio() {
+			return hits + stales == 0 ? 0 : (double) stales / (hits + stales);
+		}
+		public long getPuts() {
+			return puts;
+		}
+		/** Number of entries which was removed because the cache is full */
+		public long getEvictions() {
+			return evictions;
+		}
+		/** Number of writes which invalidated tables */
+		public long getInvalidations() {
+			return invalidations;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("SearchResultCache size:%d\thits:%d\tmisses:%d\tstales:%d\thitRatio:%.2f\tstaleRatio:%.2f\tputs:%d\tevictions:%d\tinvalidations:%d",
+					size, hits, misses, stales, getHitRatio(), getStaleRatio(), puts, evictions, invalidations);
+		}
+	}
+
+	/** Invalidate the tables of written entities, it is called at flush time and after commit. Flushed writes are recorded per Session, see {@link #isWrittenBy(Session, Key)}. */
+	private class InvalidationListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener{
+		private static final long serialVersionUID = 1L;
+		private final boolean flushTime;
+
+		InvalidationListener(boolean flushTime){
+			this.flushTime = flushTime;
+		}
+
+		@Override
+		public void onPostInsert(PostInsertEvent event) {
+			written(event.getSession(), event.getPersister());
+		}
+		@Override
+		public void onPostUpdate(PostUpdateEvent event) {
+			written(event.getSession(), event.getPersister());
+		}
+		@Override
+		public void onPostDelete(PostDeleteEvent event) {
+			written(event.getSession(), event.getPersister());
+		}
+		private void written(EventSource session, EntityPersister persister){
+			invalidate(persister.getPropertySpaces());
+			if (flushTime) SearchResultCache.this.written(session, persister.getPropertySpaces());
+		}
+	}
+}
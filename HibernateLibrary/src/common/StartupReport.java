@@ -0,0 +1,55 @@
+package common;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @definition
+ * Elapsed time of each phase of {@link HibernateUtil.SessionFactoryBuilder#build()}, such as parsing XML, building mappings and building the SessionFactory. <br/>
+ * Get it by {@link HibernateUtil.SessionFactoryBuilder#getStartupReport()} after the build. <br/>
+ * It only measures the startup, nothing is cached between starts: every build parses the XML and scans the annotated classes again.
+ * A serialized Configuration cache was measured no faster than parsing on these mappings, and deserializing a file is unsafe unless the file is trusted,
+ * so do not add one without a measured gain on a larger model.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * print(builder.getStartupReport());
+ * // Startup 1795ms	parse xml:412ms	build mappings:609ms	build session factory:774ms
+ * }
+ * </PRE>
+ */
+public class StartupReport {
+
+	/** Map{@literal<Phase name, Elapsed nanoseconds>} in the phase order */
+	private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+	private final long start = System.nanoTime();
+	private long last = start;
+
+	/** End the current phase, it starts when the previous phase ended */
+	void mark(String phase){
+		final long now = System.nanoTime();
+		final Long elapsed = phases.get(phase);
+		phases.put(phase, (elapsed == null ? 0 : elapsed) + now - last);
+		last = now;
+	}
+
+	/** Map{@literal<Phase name, Elapsed milliseconds>} in the phase order */
+	public Map<String, Long> getPhaseMillis(){
+		final Map<String, Long> millis = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Long> phase : phases.entrySet())
+			millis.put(phase.getKey(), phase.getValue() / 1000000L);
+		return Collections.unmodifiableMap(millis);
+	}
+	public long getTotalMillis(){
+		return (last - start) / 1000000L;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder("Startup ").append(getTotalMillis()).append("ms");
+		for (Map.Entry<String, Long> phase : getPhaseMillis().entrySet())
+			builder.append('\t').append(phase.getKey()).append(':').append(phase.getValue()).append("ms");
+		return builder.toString();
+	}
+}
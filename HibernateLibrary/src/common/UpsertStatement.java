@@ -0,0 +1,143 @@
+package common;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+
+/**
+ * @definition
+ * Multi-row native upsert of an entity table, used by {@link BaseController#upsertAll(Class, Iterable)}. <br/>
+ * MySQL - insert into T (...) values (...), (...) on duplicate key update c = values(c), ... <br/>
+ * H2 - merge into T (...) key (identifier columns) values (...), (...) <br/>
+ * Columns are the identifier columns and the insertable columns of the properties, values are bound by their Hibernate types,
+ * so composite identifiers such as {@link model.UserId} and many-to-one foreign keys are written as Hibernate does.
+ */
+public class UpsertStatement {
+
+	/**
+	 * Get the upsert of the entity
+	 * @return null if the dialect has no native upsert syntax
+	 * @throws RuntimeException if the entity is versioned or its identifier is generated by the database
+	 */
+	public static UpsertStatement of(Dialect dialect, AbstractEntityPersister persister){
+		final boolean mysql = dialect instanceof MySQLDialect;
+		if (!mysql && !(dialect instanceof H2Dialect)) return null;
+
+		if (persister.isVersioned())
+			throw new RuntimeException(persister.getEntityName() + " is versioned, upsert does not check the version");
+		if (persister.getEntityMetamodel().getIdentifierProperty().isIdentifierAssignedByInsert())
+			throw new RuntimeException(persister.getEntityName() + " identifier is generated by the database, upsert needs assigned identifiers");
+		return new UpsertStatement(persister, mysql);
+	}
+
+
+
+	private final AbstractEntityPersister persister;
+	/** Indexes of the properties which are written */
+	private final int[] properties;
+	/** SQL before the values, such as 'insert into T (a, b) values ' */
+	private final String head;
+	/** SQL of one row, such as '(?, ?)' */
+	private final String row;
+	/** SQL after the values, empty for H2 */
+	private final String tail;
+
+	private UpsertStatement(AbstractEntityPersister persister, boolean mysql){
+		this.persister = persister;
+
+		final List<String> columns = new ArrayList<String>();
+		final List<String> updatedColumns = new ArrayList<String>();
+		for (String column : persister.getIdentifierColumnNames())
+			columns.add(column);
+		final List<Integer> writtenProperties = new ArrayList<Integer>();
+		final boolean[] insertability = persister.getPropertyInsertability();
+		final Type[] types = persister.getPropertyTypes();
+		for (int i = 0; i < types.length; i++) {
+			if (!insertability[i] || types[i].isCollectionType()) continue;		// such as the inverse side of one-to-many
+			writtenProperties.add(i);
+			for (String column : persister.getPropertyColumnNames(i)) {
+				columns.add(column);
+				updatedColumns.add(column);
+			}
+		}
+		this.properties = new int[writtenProperties.size()];
+		for (int i = 0; i < properties.length; i++)
+			properties[i] = writtenProperties.get(i);
+
+		final StringBuilder head = new StringBuilder(mysql ? "insert into " : "merge into ").append(persister.getTableName()).append(" (");
+		final StringBuilder row = new StringBuilder("(");
+		for (int i = 0; i < columns.size(); i++) {
+			head.append(i == 0 ? "" : ", ").append(columns.get(i));
+			row.append(i == 0 ? "?" : ", ?");
+		}
+		head.append(')');
+		row.append(')');
+		if (!mysql) {
+			head.append(" key (");
+			final String[] identifierColumns = persister.getIdentifierColumnNames();
+			for (int i = 0; i < identifierColumns.length; i++)
+				head.append(i == 0 ? "" : ", ").append(identifierColumns[i]);
+			head.append(')');
+		}
+		head.append(" values ");
+
+		final StringBuilder tail = new StringBuilder();
+		if (mysql) {
+			tail.append(" on duplicate key update ");
+			if (updatedColumns.isEmpty()) {
+				final String column = persister.getIdentifierColumnNames()[0];
+				tail.append(column).append(" = ").append(column);			// nothing to update, keep the row
+			}
+			for (int i = 0; i < updatedColumns.size(); i++)
+				tail.append(i == 0 ? "" : ", ").append(updatedColumns.get(i)).append(" = values(").append(updatedColumns.get(i)).append(')');
+		}
+
+		this.head = head.toString();
+		this.row = row.toString();
+		this.tail = tail.toString();
+	}
+
+	/** SQL of the number of rows */
+	public String getSql(int rows){
+		final StringBuilder sql = new StringBuilder(head.length() + rows * (row.length() + 2) + tail.length()).append(head);
+		for (int i = 0; i < rows; i++)
+			sql.append(i == 0 ? "" : ", ").append(row);
+		return sql.append(tail).toString();
+	}
+
+	/**
+	 * Bind the values of the entities in the order of {@link #getSql(int)}
+	 * @throws RuntimeException if an identifier is null
+	 */
+	public void bind(PreparedStatement statement, List<?> entities, SessionImplementor session) throws SQLException{
+		final Type identifierType = persister.getIdentifierType();
+		final Type[] types = persister.getPropertyTypes();
+		int index = 1;
+		for (Object entity : entities) {
+			final Object identifier = persister.getIdentifier(entity, session);
+			if (identifier == null)
+				throw new RuntimeException("Cannot upsert " + persister.getEntityName() + " without identifier");
+			identifierType.nullSafeSet(statement, identifier, index, session);
+			index += identifierType.getColumnSpan(session.getFactory());
+
+			final Object[] values = persister.getPropertyValues(entity);
+			for (int property : properties) {
+				types[property].nullSafeSet(statement, values[property], index, session);
+				index += types[property].getColumnSpan(session.getFactory());
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getSql(1);
+	}
+}
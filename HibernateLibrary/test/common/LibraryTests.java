@@ -0,0 +1,25 @@
+package common;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * @definition
+ * JUnit tests of HibernateLibrary, they need no database. <br/>
+ * The class path is the output of 'HibernateLibrary/src' and 'HibernateLibrary/test',
+ * hibernate-core 4.2.5 with its dependencies and junit 4.
+ * @codeSample
+ * <PRE>
+ * {@code
+ * java -cp <class path> org.junit.runner.JUnitCore common.LibraryTests
+ * }
+ * </PRE>
+ */
+@RunWith(Suite.class)
+@SuiteClasses({
+	LocalRegionFactoryTest.class,
+	RemoteConfigurationCacheTest.class
+})
+public class LibraryTests {
+}
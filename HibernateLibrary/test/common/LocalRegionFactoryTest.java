@@ -0,0 +1,113 @@
+package common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @definition
+ * Read-write access of {@link LocalRegionFactory} regions, a value loaded by a transaction which started before an update
+ * was completed must not be put, otherwise readers get the stale value until it is evicted.
+ */
+public class LocalRegionFactoryTest {
+
+	private static final String KEY = "key";
+
+	private LocalRegionFactory regionFactory;
+	private EntityRegionAccessStrategy access;
+
+	@Before
+	public void buildRegion(){
+		regionFactory = new LocalRegionFactory(new Properties());
+		access = regionFactory.buildEntityRegion("test", new Properties(), null).buildAccessStrategy(AccessType.READ_WRITE);
+	}
+
+	@Test
+	public void rejectsLoadWhileLocked(){
+		final SoftLock lock = access.lockItem(KEY, null);
+		assertFalse(access.putFromLoad(KEY, "loaded", regionFactory.nextTimestamp(), null));
+		access.unlockItem(KEY, lock);
+	}
+
+	@Test
+	public void rejectsLoadStartedBeforeUnlock(){
+		final long loadStarted = regionFactory.nextTimestamp();
+		final SoftLock lock = access.lockItem(KEY, null);
+		access.unlockItem(KEY, lock);
+
+		assertFalse(access.putFromLoad(KEY, "stale", loadStarted, null));
+		assertNull(access.get(KEY, regionFactory.nextTimestamp()));
+	}
+
+	@Test
+	public void acceptsLoadStartedAfterUnlock(){
+		final SoftLock lock = access.lockItem(KEY, null);
+		access.unlockItem(KEY, lock);
+
+		final long loadStarted = regionFactory.nextTimestamp();
+		assertTrue(access.putFromLoad(KEY, "fresh", loadStarted, null, true));
+		assertEquals("fresh", access.get(KEY, regionFactory.nextTimestamp()));
+	}
+
+	@Test
+	public void rejectsLoadStartedBeforeUpdate(){
+		final long loadStarted = regionFactory.nextTimestamp();
+		final SoftLock lock = access.lockItem(KEY, null);
+		assertTrue(access.afterUpdate(KEY, "updated", null, null, lock));
+
+		assertFalse(access.putFromLoad(KEY, "stale", loadStarted, null));
+		assertEquals("updated", access.get(KEY, regionFactory.nextTimestamp()));
+	}
+
+	@Test
+	public void keepsLockOfConcurrentUpdates(){
+		final long loadStarted = regionFactory.nextTimestamp();
+		final SoftLock first = access.lockItem(KEY, null);
+		final SoftLock second = access.lockItem(KEY, null);
+		assertFalse(access.afterUpdate(KEY, "first", null, null, first));
+		assertFalse(access.putFromLoad(KEY, "stale", regionFactory.nextTimestamp(), null));
+
+		assertFalse(access.afterUpdate(KEY, "second", null, null, second));
+		assertFalse(access.putFromLoad(KEY, "stale", loadStarted, null));
+		assertNull(access.get(KEY, regionFactory.nextTimestamp()));
+	}
+
+	@Test
+	public void readOnlyRejectsUpdate(){
+		final EntityRegionAccessStrategy readOnly = regionFactory.buildEntityRegion("readonly", new Properties(), null)
+				.buildAccessStrategy(AccessType.READ_ONLY);
+		assertTrue(readOnly.putFromLoad(KEY, "loaded", regionFactory.nextTimestamp(), null));
+		try {
+			readOnly.afterUpdate(KEY, "updated", null, null, null);
+			fail("read-only items must not be updated");
+		} catch (UnsupportedOperationException expected) {
+		}
+		assertEquals("loaded", readOnly.get(KEY, regionFactory.nextTimestamp()));
+	}
+
+	@Test
+	public void segmentsKeepMaxEntries(){
+		final Properties properties = new Properties();
+		properties.setProperty(LocalRegionFactory.DEFAULT_MAX_ENTRIES, "1000");
+		final LocalRegionFactory bounded = new LocalRegionFactory(properties);
+		final EntityRegionAccessStrategy bulk = bounded.buildEntityRegion("bounded", new Properties(), null)
+				.buildAccessStrategy(AccessType.NONSTRICT_READ_WRITE);
+		for (int i = 0; i < 5000; i++)
+			bulk.putFromLoad(i, "value" + i, bounded.nextTimestamp(), null);
+
+		final long size = bulk.getRegion().getElementCountInMemory();
+		assertTrue("size " + size, size <= 1000 && size > 900);
+		assertEquals("value4999", bulk.get(4999, bounded.nextTimestamp()));
+		assertNull(bulk.get(0, bounded.nextTimestamp()));
+	}
+}
@@ -0,0 +1,190 @@
+package common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @definition
+ * {@link RemoteConfigurationCache} against an HTTP stub which answers conditional requests by its ETag or Last-Modified header.
+ */
+public class RemoteConfigurationCacheTest {
+
+	private static final String PATH = "/hibernate.cfg.xml";
+	private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+	private HttpServer server;
+	private URL remote;
+	private File directory;
+
+	/** Served content, its ETag is the content itself, null to send Last-Modified instead */
+	private volatile String content = "<v1/>";
+	private volatile boolean etag = true;
+	/** Request headers of each request, If-None-Match or If-Modified-Since, null if it was not conditional */
+	private final List<String> conditions = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void start() throws IOException{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext(PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+				final String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+				conditions.add(ifNoneMatch != null ? ifNoneMatch : ifModifiedSince);
+
+				final String served = content;
+				final boolean notModified = etag ? served.equals(ifNoneMatch) : LAST_MODIFIED.equals(ifModifiedSince);
+				if (etag) exchange.getResponseHeaders().set("ETag", served);
+				else exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+				if (notModified) {
+					exchange.sendResponseHeaders(304, -1);
+				} else {
+					final byte[] body = served.getBytes("UTF-8");
+					exchange.sendResponseHeaders(200, body.length);
+					final OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+		remote = new URL("http://127.0.0.1:" + server.getAddress().getPort() + PATH);
+
+		directory = File.createTempFile("remote-configuration", "");
+		directory.delete();
+	}
+
+	@After
+	public void stop(){
+		server.stop(0);
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void fetchesMissingCopy() throws IOException{
+		final URL local = new RemoteConfigurationCache(directory, 60).resolve(remote);
+		assertEquals("file", local.getProtocol());
+		assertEquals("<v1/>", read(local));
+		assertEquals(Collections.<String>singletonList(null), conditions);
+	}
+
+	@Test
+	public void usesCopyWithinMaxStaleAndRevalidatesInBackground() throws Exception{
+		new RemoteConfigurationCache(directory, 60).resolve(remote);
+
+		content = "<v2/>";
+		final RemoteConfigurationCache cache = new RemoteConfigurationCache(directory, 60);
+		assertEquals("<v1/>", read(cache.resolve(remote)));							// the copy is used, the server is not waited for
+		assertTrue(cache.revalidateInBackground(remote).get(10, TimeUnit.SECONDS));	// the pending revalidation of resolve
+		assertEquals("<v1/>", conditions.get(1));
+		assertEquals("<v2/>", read(cache.resolve(remote)));							// the changed content is used at the next start
+		assertFalse(cache.revalidateInBackground(remote).get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void revalidatesBeyondMaxStaleByETag() throws IOException{
+		final RemoteConfigurationCache cache = new RemoteConfigurationCache(directory, 0);
+		cache.resolve(remote);
+		assertFalse(cache.revalidate(remote));
+		assertEquals("<v1/>", conditions.get(1));
+
+		content = "<v2/>";
+		assertEquals("<v2/>", read(cache.resolve(remote)));
+		assertEquals(3, conditions.size());
+	}
+
+	@Test
+	public void revalidatesByLastModified() throws IOException{
+		etag = false;
+		final RemoteConfigurationCache cache = new RemoteConfigurationCache(directory, 0);
+		cache.resolve(remote);
+		assertFalse(cache.revalidate(remote));
+		assertEquals(LAST_MODIFIED, conditions.get(1));
+	}
+
+	@Test
+	public void usesStaleCopyWithoutServer() throws IOException{
+		new RemoteConfigurationCache(directory, 0).resolve(remote);
+		server.stop(0);
+		assertEquals("<v1/>", read(new RemoteConfigurationCache(directory, 0).setTimeouts(1000, 1000).resolve(remote)));
+	}
+
+	@Test
+	public void failsWithoutCopyAndServer() throws IOException{
+		server.stop(0);
+		try {
+			new RemoteConfigurationCache(directory, 0).setTimeouts(1000, 1000).resolve(remote);
+			fail("A missing copy was resolved");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void keepsCurrentAndPreviousContents() throws IOException{
+		final RemoteConfigurationCache cache = new RemoteConfigurationCache(directory, 0);
+		final URL first = cache.resolve(remote);
+		content = "<v2/>";
+		cache.resolve(remote);
+		assertEquals("<v1/>", read(first));										// the previous content may be in use
+		content = "<v3/>";
+		assertEquals("<v3/>", read(cache.resolve(remote)));
+		assertFalse(new File(first.getPath()).exists());
+		assertEquals(2, directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".xml");
+			}
+		}).length);
+	}
+
+	@Test
+	public void returnsOtherUrls() throws IOException{
+		final URL file = directory.toURI().toURL();
+		assertSame(file, new RemoteConfigurationCache(directory, 60).resolve(file));
+		assertNull(directory.listFiles());
+	}
+
+	private static String read(URL url) throws IOException{
+		final InputStream in = url.openStream();
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for (int read; (read = in.read()) != -1;)
+				out.write(read);
+			return out.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+}